@@ -0,0 +1,358 @@
+package com.saaya.automator.data;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabaseLockedException;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * SaayaMemoryDBConcurrencyTest - Parallel writers against live readers
+ * Several threads save logs at once while others page logs and read stats,
+ * on a scratch database. No call may fail (in particular with
+ * SQLiteDatabaseLockedException), readers must never see counts go backwards
+ * or a page out of order, and afterwards the table and every in-memory index
+ * must agree on exactly the rows written. Writers must also never stall
+ * behind index work: rebuilding and flushing the indexes happens off the
+ * commit path.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SaayaMemoryDBConcurrencyTest {
+
+    private static final String DATABASE_NAME = "saaya_concurrency_test.db";
+    private static final String INDEX_FILE_NAME = "saaya_concurrency_vocab.bin";
+    private static final String SKETCH_FILE_NAME = "saaya_concurrency_sketches.bin";
+
+    private static final int WRITERS = 4;
+    private static final int LOGS_PER_WRITER = 250;
+    private static final int BATCH_SIZE = 10;
+    private static final int READERS = 3;
+    private static final int PAGE_SIZE = 50;
+    private static final long TIMEOUT_SECONDS = 60;
+
+    // Rows behind the indexes while they are rebuilt over and over
+    private static final int SEED_ROWS = 5000;
+    private static final int TIMED_WRITES = 200;
+    // Generous for a commit, far short of a cold rebuild of SEED_ROWS
+    private static final long MAX_WRITE_MILLIS = 250;
+
+    // Mid-November 2023, well clear of a month boundary in any time zone
+    private static final long BASE_TIME = 1_700_000_000_000L;
+    private static final long STEP_MILLIS = 60_000L;
+
+    private Context context;
+    private SaayaMemoryDB db;
+    private final ConcurrentLinkedQueue<Throwable> errors = new ConcurrentLinkedQueue<>();
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        deleteFiles();
+        db = new SaayaMemoryDB(context, DATABASE_NAME, INDEX_FILE_NAME, SKETCH_FILE_NAME);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if (db != null) {
+            db.awaitPublished();
+            db.close();
+        }
+        deleteFiles();
+    }
+
+    @Test
+    public void parallelSaveLogKeepsEveryRow() throws InterruptedException {
+        final AtomicInteger rejected = new AtomicInteger();
+        runConcurrently(new Writer() {
+            @Override
+            public void write(int writer) {
+                for (int i = 0; i < LOGS_PER_WRITER; i++) {
+                    int n = writer * LOGS_PER_WRITER + i;
+                    if (!db.saveLog(timestampOf(n), packageOf(writer), "contact " + (n % 17),
+                            "message " + n + " from writer " + writer)) {
+                        rejected.incrementAndGet();
+                    }
+                }
+            }
+        });
+
+        assertEquals("saveLog returned false", 0, rejected.get());
+        assertConsistent(db, WRITERS * LOGS_PER_WRITER);
+    }
+
+    @Test
+    public void mixedSaveLogAndSaveLogsKeepEveryRow() throws InterruptedException {
+        final AtomicInteger saved = new AtomicInteger();
+        runConcurrently(new Writer() {
+            @Override
+            public void write(int writer) {
+                // Even writers batch, odd writers save one row at a time
+                for (int i = 0; i < LOGS_PER_WRITER; i += BATCH_SIZE) {
+                    List<SaayaMemoryDB.LogEntry> batch = new ArrayList<>(BATCH_SIZE);
+                    for (int j = i; j < i + BATCH_SIZE; j++) {
+                        int n = writer * LOGS_PER_WRITER + j;
+                        batch.add(new SaayaMemoryDB.LogEntry(0, timestampOf(n), packageOf(writer),
+                                "contact " + (n % 17), "message " + n));
+                    }
+                    if (writer % 2 == 0) {
+                        saved.addAndGet(db.saveLogs(batch));
+                    } else {
+                        for (SaayaMemoryDB.LogEntry entry : batch) {
+                            if (db.saveLog(entry.timestamp, entry.packageName,
+                                    entry.recipientName, entry.messageText)) {
+                                saved.incrementAndGet();
+                            }
+                        }
+                    }
+                }
+            }
+        });
+
+        assertEquals(WRITERS * LOGS_PER_WRITER, saved.get());
+        assertConsistent(db, WRITERS * LOGS_PER_WRITER);
+    }
+
+    @Test
+    public void saveLogDoesNotWaitForIndexRebuilds() throws InterruptedException {
+        List<SaayaMemoryDB.LogEntry> seed = new ArrayList<>(SEED_ROWS);
+        for (int n = 0; n < SEED_ROWS; n++) {
+            seed.add(new SaayaMemoryDB.LogEntry(0, timestampOf(n), packageOf(n % WRITERS),
+                    "contact " + (n % 17), "seed message " + n + " with a few more words"));
+        }
+        assertEquals(SEED_ROWS, db.saveLogs(seed));
+        db.warmUp();
+
+        // Drop the indexes and their files and build them again from the
+        // table, as fast as possible, while a writer times every saveLog
+        final CountDownLatch writerDone = new CountDownLatch(1);
+        final AtomicInteger rebuilds = new AtomicInteger();
+        Thread churn = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    do {
+                        db.releaseAnalytics();
+                        new File(context.getFilesDir(), INDEX_FILE_NAME).delete();
+                        new File(context.getFilesDir(), SKETCH_FILE_NAME).delete();
+                        db.warmUp();
+                        rebuilds.incrementAndGet();
+                    } while (writerDone.getCount() > 0);
+                } catch (Throwable t) {
+                    errors.add(t);
+                }
+            }
+        }, "rebuilder");
+        churn.start();
+
+        long slowestNanos = 0;
+        try {
+            for (int i = 0; i < TIMED_WRITES; i++) {
+                int n = SEED_ROWS + i;
+                long start = System.nanoTime();
+                assertTrue(db.saveLog(timestampOf(n), packageOf(0), "contact", "timed message " + n));
+                slowestNanos = Math.max(slowestNanos, System.nanoTime() - start);
+            }
+        } finally {
+            writerDone.countDown();
+            churn.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+        }
+
+        if (!errors.isEmpty()) {
+            AssertionError failure = new AssertionError("rebuilder failed");
+            failure.initCause(errors.peek());
+            throw failure;
+        }
+        assertTrue("rebuilder never finished", rebuilds.get() > 0);
+        long slowestMillis = TimeUnit.NANOSECONDS.toMillis(slowestNanos);
+        assertTrue("saveLog stalled for " + slowestMillis + " ms behind index rebuilds",
+                slowestMillis < MAX_WRITE_MILLIS);
+
+        db.awaitPublished();
+        assertEquals(SEED_ROWS + TIMED_WRITES, db.getTotalCount());
+    }
+
+    private interface Writer {
+        void write(int writer);
+    }
+
+    /**
+     * Start writers and readers together, keep the readers going until every
+     * writer has finished, then fail on anything any of them threw
+     */
+    private void runConcurrently(final Writer writer) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch writersDone = new CountDownLatch(WRITERS);
+        final CountDownLatch readersDone = new CountDownLatch(READERS);
+
+        for (int w = 0; w < WRITERS; w++) {
+            final int index = w;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        writer.write(index);
+                    } catch (Throwable t) {
+                        errors.add(t);
+                    } finally {
+                        writersDone.countDown();
+                    }
+                }
+            }, "writer-" + w).start();
+        }
+
+        for (int r = 0; r < READERS; r++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        read(writersDone);
+                    } catch (Throwable t) {
+                        errors.add(t);
+                    } finally {
+                        readersDone.countDown();
+                    }
+                }
+            }, "reader-" + r).start();
+        }
+
+        start.countDown();
+        assertTrue("writers timed out", writersDone.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue("readers timed out", readersDone.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        for (Throwable error : errors) {
+            if (error instanceof SQLiteDatabaseLockedException) {
+                fail("Database locked: " + error);
+            }
+        }
+        if (!errors.isEmpty()) {
+            AssertionError failure = new AssertionError(errors.size() + " thread(s) failed");
+            failure.initCause(errors.peek());
+            throw failure;
+        }
+    }
+
+    /**
+     * Read until the writers finish; committed rows are published in commit
+     * order, so nothing a reader sees may shrink between two reads
+     */
+    private void read(CountDownLatch writersDone) throws InterruptedException {
+        int fromDay = SaayaMemoryDB.epochDay(BASE_TIME);
+        int toDay = SaayaMemoryDB.epochDay(timestampOf(WRITERS * LOGS_PER_WRITER));
+        int lastTotal = 0;
+        long lastNewestId = 0;
+
+        do {
+            int total = db.getTotalCount();
+            assertTrue("total went from " + lastTotal + " to " + total, total >= lastTotal);
+            lastTotal = total;
+
+            long ranged = db.getStats(fromDay, toDay, SaayaMemoryDB.GroupBy.NONE).get(0).messageCount;
+            assertTrue("range count " + ranged + " behind total " + total, ranged >= total);
+
+            List<SaayaMemoryDB.LogEntry> page = db.getLogs(Long.MAX_VALUE, PAGE_SIZE);
+            assertDescending(page);
+            if (!page.isEmpty()) {
+                assertTrue(page.get(0).id >= lastNewestId);
+                lastNewestId = page.get(0).id;
+            }
+
+            db.getStats(fromDay, toDay, SaayaMemoryDB.GroupBy.APP);
+            db.getMessageCount(fromDay, toDay);
+        } while (!writersDone.await(1, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * The indexes, and the table paged from scratch, hold exactly expected rows
+     */
+    private void assertConsistent(SaayaMemoryDB database, int expected) throws InterruptedException {
+        // Every write has returned; let the publish thread catch up
+        database.awaitPublished();
+        int fromDay = SaayaMemoryDB.epochDay(BASE_TIME);
+        int toDay = SaayaMemoryDB.epochDay(timestampOf(expected));
+
+        assertEquals(expected, database.getTotalCount());
+        assertEquals(expected, database.getMessageCount(fromDay, toDay));
+        assertEquals(expected,
+                database.getStats(fromDay, toDay, SaayaMemoryDB.GroupBy.NONE).get(0).messageCount);
+
+        long appTotal = 0;
+        for (SaayaMemoryDB.RangeStat stat : database.getStats(fromDay, toDay, SaayaMemoryDB.GroupBy.APP)) {
+            assertEquals(LOGS_PER_WRITER, stat.messageCount);
+            appTotal += stat.messageCount;
+        }
+        assertEquals(expected, appTotal);
+
+        assertEquals(expected, pageAll(database).size());
+
+        // A fresh instance rebuilds every index from the table alone
+        database.close();
+        db = new SaayaMemoryDB(context, DATABASE_NAME, INDEX_FILE_NAME, SKETCH_FILE_NAME);
+        assertEquals(expected, db.getTotalCount());
+        assertEquals(expected, pageAll(db).size());
+    }
+
+    /**
+     * Every row, newest first; ids must be unique and strictly descending
+     */
+    private static List<SaayaMemoryDB.LogEntry> pageAll(SaayaMemoryDB database) {
+        List<SaayaMemoryDB.LogEntry> all = new ArrayList<>();
+        Set<Integer> ids = new HashSet<>();
+        long beforeId = Long.MAX_VALUE;
+        while (true) {
+            List<SaayaMemoryDB.LogEntry> page = database.getLogs(beforeId, PAGE_SIZE);
+            if (page.isEmpty()) {
+                break;
+            }
+            assertDescending(page);
+            for (SaayaMemoryDB.LogEntry entry : page) {
+                assertTrue("duplicate id " + entry.id, ids.add(entry.id));
+                assertTrue(entry.id < beforeId);
+            }
+            all.addAll(page);
+            beforeId = page.get(page.size() - 1).id;
+        }
+        return all;
+    }
+
+    private static void assertDescending(List<SaayaMemoryDB.LogEntry> page) {
+        for (int i = 1; i < page.size(); i++) {
+            assertTrue("ids out of order: " + page.get(i - 1).id + ", " + page.get(i).id,
+                    page.get(i - 1).id > page.get(i).id);
+        }
+    }
+
+    private static long timestampOf(int n) {
+        return BASE_TIME + n * STEP_MILLIS;
+    }
+
+    private static String packageOf(int writer) {
+        return "com.example.writer" + writer;
+    }
+
+    private void deleteFiles() {
+        context.deleteDatabase(DATABASE_NAME);
+        new File(context.getFilesDir(), INDEX_FILE_NAME).delete();
+        new File(context.getFilesDir(), SKETCH_FILE_NAME).delete();
+    }
+}
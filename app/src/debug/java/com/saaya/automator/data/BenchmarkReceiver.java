@@ -0,0 +1,93 @@
+package com.saaya.automator.data;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+import org.json.JSONObject;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * BenchmarkReceiver - Debug-only trigger for QueryBenchmark
+ * Guarded by the DUMP permission, which the adb shell holds, so only a
+ * connected host can start it:
+ *
+ *   adb shell am broadcast -a com.saaya.automator.RUN_BENCHMARK \
+ *       -n com.saaya.automator/.data.BenchmarkReceiver --es scales 10000,100000,1000000
+ *   adb shell run-as com.saaya.automator cat files/benchmark/results.json
+ *
+ * Pass --ez promote true to store the results as the device's baseline. To
+ * check a baseline in for everyone, run on the reference device and save
+ * results.json as app/src/debug/assets/benchmark/baseline.json. No device
+ * baseline is checked in yet, so device runs compare only against a promoted
+ * one; CI instead runs QueryBenchmarkHostTest against its host baseline.
+ */
+public class BenchmarkReceiver extends BroadcastReceiver {
+
+    private static final String TAG = "BenchmarkReceiver";
+
+    public static final String ACTION_RUN = "com.saaya.automator.RUN_BENCHMARK";
+    public static final String EXTRA_SCALES = "scales";
+    public static final String EXTRA_PROMOTE = "promote";
+
+    private static final int[] DEFAULT_SCALES = {10_000, 100_000, 1_000_000};
+
+    private static final AtomicBoolean running = new AtomicBoolean();
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (!ACTION_RUN.equals(intent.getAction())) {
+            return;
+        }
+        if (!running.compareAndSet(false, true)) {
+            Log.w(TAG, "Benchmark already running");
+            return;
+        }
+
+        final QueryBenchmark benchmark = new QueryBenchmark(context);
+        final int[] scales = parseScales(intent.getStringExtra(EXTRA_SCALES));
+        final boolean promote = intent.getBooleanExtra(EXTRA_PROMOTE, false);
+
+        // Minutes at large scales, far beyond a receiver's time limit
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    JSONObject report = benchmark.run(scales);
+                    if (promote) {
+                        benchmark.promoteResults();
+                    }
+                    if (!report.optBoolean("compared")) {
+                        Log.i(TAG, "Benchmark finished, no baseline to compare against");
+                    } else {
+                        Log.i(TAG, "Benchmark finished, " + (report.optBoolean("passed")
+                                ? "no regressions" : "REGRESSIONS found"));
+                    }
+                } catch (Exception e) {
+                    Log.e(TAG, "Benchmark failed: " + e.getMessage());
+                } finally {
+                    running.set(false);
+                }
+            }
+        }, "SaayaBenchmark").start();
+    }
+
+    private static int[] parseScales(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return DEFAULT_SCALES;
+        }
+        String[] parts = value.split(",");
+        int[] scales = new int[parts.length];
+        try {
+            for (int i = 0; i < parts.length; i++) {
+                scales[i] = Integer.parseInt(parts[i].trim());
+            }
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "Bad scales '" + value + "', using defaults");
+            return DEFAULT_SCALES;
+        }
+        return scales;
+    }
+}
@@ -0,0 +1,361 @@
+package com.saaya.automator.data;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * QueryBenchmark - Query latency and file size of SaayaMemoryDB at scale
+ * Grows a scratch database with SyntheticLogGenerator through each requested
+ * row count, then times the dashboard queries (p50/p99 over warm runs, plus a
+ * cold first call on a freshly opened instance) and records the database size.
+ * Results go to files/benchmark/results.json. p99 and size are compared against
+ * files/benchmark/baseline.json, or failing that the baseline checked in under
+ * the debug assets (benchmark/baseline.json), and regressions are listed. A run
+ * with no baseline is reported as not compared rather than as passed. Numbers
+ * only compare on the same device, so the checked-in baseline is taken on the
+ * reference device. QueryBenchmarkHostTest runs the same queries on the JVM
+ * against its own checked-in host baseline, with a looser latency ratio since
+ * CI machines differ. The user's own database is never touched.
+ */
+final class QueryBenchmark {
+
+    private static final String TAG = "QueryBenchmark";
+
+    static final String DATABASE_NAME = "saaya_bench.db";
+    private static final String INDEX_FILE_NAME = "saaya_bench_vocab.bin";
+    private static final String SKETCH_FILE_NAME = "saaya_bench_sketches.bin";
+    static final String RESULTS_FILE = "results.json";
+    static final String BASELINE_FILE = "baseline.json";
+    static final String BASELINE_ASSET = "benchmark/baseline.json";
+
+    private static final long SEED = 0x5AA7AL;
+    private static final int DAYS = 365;
+    private static final int INSERT_BATCH = 5000;
+    private static final int WARMUP_RUNS = 3;
+    private static final int MEASURED_RUNS = 30;
+
+    // A result regresses when it is both this much slower/larger and above the noise floor
+    static final double REGRESSION_RATIO = 1.25;
+    static final double LATENCY_NOISE_MS = 1.0;
+
+    interface Query {
+        void run(SaayaMemoryDB db);
+    }
+
+    private final Context context;
+    private final File directory;
+    private final double latencyRatio;
+    private final double latencyNoiseMs;
+    private final Map<String, Query> queries = new LinkedHashMap<>();
+
+    QueryBenchmark(Context context) {
+        this(context, REGRESSION_RATIO, LATENCY_NOISE_MS);
+    }
+
+    /**
+     * Looser p99 thresholds, for baselines taken on other hardware or a
+     * noisier runtime; sizes are compared at REGRESSION_RATIO regardless
+     */
+    QueryBenchmark(Context context, double latencyRatio, double latencyNoiseMs) {
+        this.context = context.getApplicationContext();
+        this.directory = new File(context.getFilesDir(), "benchmark");
+        this.latencyRatio = latencyRatio;
+        this.latencyNoiseMs = latencyNoiseMs;
+
+        queries.put("getAllLogs", new Query() {
+            @Override
+            public void run(SaayaMemoryDB db) {
+                db.getAllLogs();
+            }
+        });
+        queries.put("getTopUsedApps", new Query() {
+            @Override
+            public void run(SaayaMemoryDB db) {
+                db.getTopUsedApps();
+            }
+        });
+        queries.put("getPersonalityProfile", new Query() {
+            @Override
+            public void run(SaayaMemoryDB db) {
+                db.getPersonalityProfile();
+            }
+        });
+        queries.put("getTopRecipients", new Query() {
+            @Override
+            public void run(SaayaMemoryDB db) {
+                db.getTopRecipients(Integer.MIN_VALUE, Integer.MAX_VALUE, 5);
+            }
+        });
+        queries.put("getApproxTopRecipients", new Query() {
+            @Override
+            public void run(SaayaMemoryDB db) {
+                db.getApproxTopRecipients(5);
+            }
+        });
+    }
+
+    /**
+     * Run every scale in ascending order against the device's baseline;
+     * returns the report that was written
+     */
+    JSONObject run(int[] scales) throws JSONException, IOException {
+        return run(scales, readBaseline());
+    }
+
+    /**
+     * Run every scale in ascending order against baseline, which may be null;
+     * returns the report that was written
+     */
+    JSONObject run(int[] scales, JSONObject baseline) throws JSONException, IOException {
+        int[] sorted = scales.clone();
+        Arrays.sort(sorted);
+        deleteScratch();
+
+        JSONObject report = new JSONObject();
+        report.put("device", Build.MANUFACTURER + " " + Build.MODEL);
+        report.put("sdk", Build.VERSION.SDK_INT);
+
+        JSONArray results = new JSONArray();
+        SyntheticLogGenerator generator = new SyntheticLogGenerator(SEED, DAYS);
+        long rows = 0;
+        try {
+            for (int scale : sorted) {
+                rows = grow(generator, rows, scale);
+                results.put(measure(scale));
+            }
+        } finally {
+            deleteScratch();
+        }
+        report.put("scales", results);
+
+        JSONArray regressions = compare(results, baseline);
+        report.put("baselineDevice", baseline != null ? baseline.optString("device") : JSONObject.NULL);
+        report.put("compared", baseline != null);
+        report.put("regressions", regressions);
+        report.put("passed", baseline != null && regressions.length() == 0);
+        if (baseline == null) {
+            Log.w(TAG, "No baseline; results not compared");
+        } else if (!report.getString("device").equals(baseline.optString("device"))) {
+            Log.w(TAG, "Baseline is from " + baseline.optString("device") + "; latencies may not compare");
+        }
+
+        write(new File(directory, RESULTS_FILE), report.toString(2));
+        return report;
+    }
+
+    /**
+     * Make the current results the new baseline
+     */
+    void promoteResults() throws IOException {
+        File results = new File(directory, RESULTS_FILE);
+        if (results.exists()) {
+            write(new File(directory, BASELINE_FILE), read(results));
+        }
+    }
+
+    private long grow(SyntheticLogGenerator generator, long rows, int target) {
+        SaayaMemoryDB db = openScratch();
+        long start = SystemClock.elapsedRealtime();
+        try {
+            while (rows < target) {
+                int batch = (int) Math.min(INSERT_BATCH, target - rows);
+                rows += db.saveLogs(generator.next(batch));
+            }
+        } finally {
+            db.close();
+        }
+        Log.i(TAG, "Scratch database at " + rows + " rows ("
+                + (SystemClock.elapsedRealtime() - start) + " ms)");
+        return rows;
+    }
+
+    private JSONObject measure(int scale) throws JSONException {
+        JSONObject result = new JSONObject();
+        result.put("rows", scale);
+
+        JSONObject timings = new JSONObject();
+        for (Map.Entry<String, Query> entry : queries.entrySet()) {
+            // Fresh instance per query so the cold call includes loading the indexes
+            SaayaMemoryDB db = openScratch();
+            try {
+                long coldStart = System.nanoTime();
+                entry.getValue().run(db);
+                double coldMs = (System.nanoTime() - coldStart) / 1e6;
+
+                for (int i = 0; i < WARMUP_RUNS; i++) {
+                    entry.getValue().run(db);
+                }
+                double[] samples = new double[MEASURED_RUNS];
+                for (int i = 0; i < MEASURED_RUNS; i++) {
+                    long start = System.nanoTime();
+                    entry.getValue().run(db);
+                    samples[i] = (System.nanoTime() - start) / 1e6;
+                }
+                Arrays.sort(samples);
+
+                JSONObject timing = new JSONObject();
+                timing.put("coldMs", round(coldMs));
+                timing.put("p50Ms", round(percentile(samples, 0.50)));
+                timing.put("p99Ms", round(percentile(samples, 0.99)));
+                timings.put(entry.getKey(), timing);
+            } finally {
+                db.close();
+            }
+        }
+        result.put("queries", timings);
+        result.put("dbBytes", databaseBytes());
+
+        Log.i(TAG, scale + " rows: " + timings);
+        return result;
+    }
+
+    /**
+     * Regressions of results against the baseline, matched by row count and query name
+     */
+    private JSONArray compare(JSONArray results, JSONObject baseline) throws JSONException {
+        JSONArray regressions = new JSONArray();
+        JSONArray baseScales = baseline != null ? baseline.optJSONArray("scales") : null;
+        if (baseScales == null) {
+            return regressions;
+        }
+
+        for (int i = 0; i < results.length(); i++) {
+            JSONObject result = results.optJSONObject(i);
+            JSONObject base = findScale(baseScales, result.optLong("rows"));
+            if (base == null) {
+                continue;
+            }
+
+            long bytes = result.optLong("dbBytes");
+            long baseBytes = base.optLong("dbBytes");
+            if (baseBytes > 0 && bytes > baseBytes * REGRESSION_RATIO) {
+                regressions.put(result.optLong("rows") + " rows: dbBytes "
+                        + baseBytes + " -> " + bytes);
+            }
+
+            JSONObject timings = result.getJSONObject("queries");
+            JSONObject baseTimings = base.optJSONObject("queries");
+            if (baseTimings == null) {
+                continue;
+            }
+            for (String name : queries.keySet()) {
+                JSONObject timing = timings.optJSONObject(name);
+                JSONObject baseTiming = baseTimings.optJSONObject(name);
+                if (timing == null || baseTiming == null) {
+                    continue;
+                }
+                double p99 = timing.optDouble("p99Ms", 0);
+                double baseP99 = baseTiming.optDouble("p99Ms", 0);
+                if (p99 > baseP99 * latencyRatio && p99 - baseP99 > latencyNoiseMs) {
+                    regressions.put(result.optLong("rows") + " rows: " + name
+                            + " p99 " + baseP99 + " ms -> " + p99 + " ms");
+                }
+            }
+        }
+        return regressions;
+    }
+
+    private static JSONObject findScale(JSONArray scales, long rows) {
+        for (int i = 0; i < scales.length(); i++) {
+            JSONObject scale = scales.optJSONObject(i);
+            if (scale != null && scale.optLong("rows") == rows) {
+                return scale;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A promoted baseline on the device wins over the checked-in one
+     */
+    private JSONObject readBaseline() {
+        try {
+            File file = new File(directory, BASELINE_FILE);
+            if (file.exists()) {
+                return new JSONObject(read(file));
+            }
+            return new JSONObject(read(context.getAssets().open(BASELINE_ASSET)));
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException | JSONException e) {
+            Log.e(TAG, "Ignoring unreadable baseline: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private SaayaMemoryDB openScratch() {
+        return new SaayaMemoryDB(context, DATABASE_NAME, INDEX_FILE_NAME, SKETCH_FILE_NAME);
+    }
+
+    private long databaseBytes() {
+        File db = context.getDatabasePath(DATABASE_NAME);
+        return db.length() + new File(db.getPath() + "-wal").length();
+    }
+
+    private void deleteScratch() {
+        context.deleteDatabase(DATABASE_NAME);
+        new File(context.getFilesDir(), INDEX_FILE_NAME).delete();
+        new File(context.getFilesDir(), SKETCH_FILE_NAME).delete();
+    }
+
+    private static double percentile(double[] sorted, double fraction) {
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 1000) / 1000.0;
+    }
+
+    private void write(File file, String content) throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String read(File file) throws IOException {
+        return read(new FileInputStream(file));
+    }
+
+    /**
+     * Whole stream as UTF-8; closes it
+     */
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                bytes.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,162 @@
+package com.saaya.automator.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * SyntheticLogGenerator - Realistic fake shadow_logs rows for benchmarks
+ * Packages and message lengths follow fixed histograms, hours follow a daily
+ * activity curve, and recipients and words are Zipf-distributed so the bucket
+ * table and vocabulary grow the way real data does. Seeded, so every run
+ * produces the same rows.
+ */
+final class SyntheticLogGenerator {
+
+    private static final String[] PACKAGES = {
+        "com.whatsapp",
+        "com.instagram.android",
+        "com.facebook.orca",
+        "com.snapchat.android",
+        "com.twitter.android"
+    };
+    private static final int[] PACKAGE_WEIGHTS = {55, 18, 12, 10, 5};
+
+    // Relative activity per local hour: quiet overnight, peaks at lunch and late evening
+    private static final int[] HOUR_WEIGHTS = {
+        4, 2, 1, 1, 1, 1, 2, 4, 6, 7, 7, 8,
+        10, 9, 7, 7, 8, 9, 11, 12, 14, 13, 10, 6
+    };
+
+    // Message length histogram in words: {min, max, weight}
+    private static final int[][] LENGTH_BUCKETS = {
+        {1, 2, 35},
+        {3, 5, 30},
+        {6, 10, 20},
+        {11, 20, 10},
+        {21, 60, 5}
+    };
+    private static final int[] LENGTH_WEIGHTS = column(LENGTH_BUCKETS, 2);
+
+    // Highest-ranked words of the Zipf vocabulary; the long tail is synthetic
+    private static final String[] COMMON_WORDS = {
+        "hai", "ok", "the", "to", "main", "kya", "you", "haan", "nahi", "i",
+        "and", "ho", "bhi", "ka", "ki", "ke", "yaar", "is", "kal", "aaj",
+        "thanks", "kar", "raha", "hoon", "what", "it", "sir", "please", "done", "acha",
+        "bro", "ghar", "call", "meeting", "time", "kab", "abhi", "theek", "good", "night"
+    };
+
+    private static final int RECIPIENTS = 300;
+    private static final int VOCABULARY = 20_000;
+    private static final double UNKNOWN_RECIPIENT_SHARE = 0.08;
+
+    private static final long DAY_MS = 86_400_000L;
+    private static final long HOUR_MS = 3_600_000L;
+
+    private final Random random;
+    private final long firstDayStart;
+    private final int days;
+    private final double[] recipientCdf = zipfCdf(RECIPIENTS, 1.1);
+    private final double[] wordCdf = zipfCdf(VOCABULARY, 1.0);
+    private final StringBuilder text = new StringBuilder();
+
+    /**
+     * Rows spread over the given number of days ending today
+     */
+    SyntheticLogGenerator(long seed, int days) {
+        this.random = new Random(seed);
+        this.days = days;
+        long todayStart = (long) SaayaMemoryDB.epochDay(System.currentTimeMillis()) * DAY_MS;
+        this.firstDayStart = todayStart - (long) (days - 1) * DAY_MS;
+    }
+
+    List<SaayaMemoryDB.LogEntry> next(int count) {
+        List<SaayaMemoryDB.LogEntry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            entries.add(new SaayaMemoryDB.LogEntry(0, nextTimestamp(),
+                    PACKAGES[pick(PACKAGE_WEIGHTS)], nextRecipient(), nextMessage()));
+        }
+        return entries;
+    }
+
+    /**
+     * Local wall-clock time on a uniform day; epochDay() undoes the zone offset
+     */
+    private long nextTimestamp() {
+        long local = firstDayStart + random.nextInt(days) * DAY_MS
+                + pick(HOUR_WEIGHTS) * HOUR_MS + (long) (random.nextDouble() * HOUR_MS);
+        return local - TimeZone.getDefault().getOffset(local);
+    }
+
+    private String nextRecipient() {
+        if (random.nextDouble() < UNKNOWN_RECIPIENT_SHARE) {
+            return null;
+        }
+        return "Contact " + (sample(recipientCdf) + 1);
+    }
+
+    private String nextMessage() {
+        int[] bucket = LENGTH_BUCKETS[pick(LENGTH_WEIGHTS)];
+        int words = bucket[0] + random.nextInt(bucket[1] - bucket[0] + 1);
+
+        text.setLength(0);
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                text.append(' ');
+            }
+            int rank = sample(wordCdf);
+            if (rank < COMMON_WORDS.length) {
+                text.append(COMMON_WORDS[rank]);
+            } else {
+                text.append('w').append(Integer.toString(rank, 36));
+            }
+        }
+        return text.toString();
+    }
+
+    private static int[] column(int[][] rows, int column) {
+        int[] values = new int[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            values[i] = rows[i][column];
+        }
+        return values;
+    }
+
+    private int pick(int[] weights) {
+        int total = 0;
+        for (int weight : weights) {
+            total += weight;
+        }
+        int target = random.nextInt(total);
+        for (int i = 0; i < weights.length; i++) {
+            target -= weights[i];
+            if (target < 0) {
+                return i;
+            }
+        }
+        return weights.length - 1;
+    }
+
+    /**
+     * Zero-based rank drawn from a precomputed cumulative distribution
+     */
+    private int sample(double[] cdf) {
+        int index = Arrays.binarySearch(cdf, random.nextDouble());
+        return Math.min(index >= 0 ? index : -index - 1, cdf.length - 1);
+    }
+
+    private static double[] zipfCdf(int size, double exponent) {
+        double[] cdf = new double[size];
+        double sum = 0;
+        for (int i = 0; i < size; i++) {
+            sum += 1.0 / Math.pow(i + 1, exponent);
+            cdf[i] = sum;
+        }
+        for (int i = 0; i < size; i++) {
+            cdf[i] /= sum;
+        }
+        return cdf;
+    }
+}
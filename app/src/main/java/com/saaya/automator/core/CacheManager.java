@@ -0,0 +1,281 @@
+package com.saaya.automator.core;
+
+import android.app.ActivityManager;
+import android.app.Application;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * CacheManager - One budget and one memory-pressure response for every cache
+ * Caches in the process register with a byte budget, and call enforce() after
+ * they grow; a cache found over its budget is trimmed back to it on a
+ * background thread, so budgets hold in steady state and not only under
+ * pressure. When the system reports pressure, budgets shrink: to half once
+ * the process has no visible UI, and to a quarter once it is in the
+ * background LRU list, where the system kills next; losing the shadow
+ * process would also restart the accessibility service. Caches that cannot
+ * shrink part way, such as an index that is either loaded or not, register
+ * whole: they are dropped once over their budget or in the background, and
+ * left alone otherwise, since dropping them earlier just means rebuilding
+ * them moments later. Trims may take the cache's own locks or a database
+ * transaction. One instance per process; each process reports its own usage
+ * under its name, and the UI process hands its usage to the provider so
+ * diagnostics show both.
+ */
+public final class CacheManager implements ComponentCallbacks2 {
+
+    private static final String TAG = "CacheManager";
+
+    /**
+     * Something that can report and give back memory; all calls come off the main thread
+     */
+    public interface Cache {
+        /**
+         * Estimated bytes held right now
+         */
+        long sizeBytes();
+
+        /**
+         * Shrink to at most maxBytes; 0 means drop everything that can be rebuilt
+         */
+        void trimTo(long maxBytes);
+    }
+
+    private static final class Entry {
+        final String name;
+        final long budgetBytes;
+        final boolean whole;
+        final Cache cache;
+        // An over-budget trim is queued and has not started yet
+        final AtomicBoolean enforcing = new AtomicBoolean();
+
+        Entry(String name, long budgetBytes, boolean whole, Cache cache) {
+            this.name = name;
+            this.budgetBytes = budgetBytes;
+            this.whole = whole;
+            this.cache = cache;
+        }
+    }
+
+    private static CacheManager instance;
+
+    private final String process;
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    // Last usage reported by each other process, by process name
+    private final Map<String, Map<String, String>> remoteUsage = new LinkedHashMap<>();
+    private final Handler trimHandler;
+    // Last level acted on, for diagnostics
+    private volatile int lastLevel;
+    private volatile long trims;
+    private volatile long enforced;
+
+    private CacheManager(String process) {
+        this.process = process;
+        HandlerThread thread = new HandlerThread("SaayaCacheTrim", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        this.trimHandler = new Handler(thread.getLooper());
+    }
+
+    public static synchronized CacheManager getInstance(Context context) {
+        if (instance == null) {
+            instance = new CacheManager(processName(context));
+            context.getApplicationContext().registerComponentCallbacks(instance);
+        }
+        return instance;
+    }
+
+    /**
+     * Add a cache that shrinks part way, replacing any registered under the same name
+     */
+    public synchronized void register(String name, long budgetBytes, Cache cache) {
+        entries.put(name, new Entry(name, budgetBytes, false, cache));
+    }
+
+    /**
+     * Add a cache that is only ever dropped whole (trimTo(0)): once it is over
+     * budgetBytes, or once the process is in the background
+     */
+    public synchronized void registerWhole(String name, long budgetBytes, Cache cache) {
+        entries.put(name, new Entry(name, budgetBytes, true, cache));
+    }
+
+    public synchronized void unregister(String name) {
+        entries.remove(name);
+    }
+
+    /**
+     * Check a cache against its budget after it grew, and queue a trim back to
+     * the budget if it is over. Cheap enough for write paths: one size check,
+     * and at most one trim is queued per cache at a time.
+     */
+    public void enforce(String name) {
+        final Entry entry;
+        synchronized (this) {
+            entry = entries.get(name);
+        }
+        if (entry == null || entry.cache.sizeBytes() <= entry.budgetBytes
+                || !entry.enforcing.compareAndSet(false, true)) {
+            return;
+        }
+        trimHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // Cleared first, so growth during the trim queues another check
+                entry.enforcing.set(false);
+                long before = entry.cache.sizeBytes();
+                if (before <= entry.budgetBytes) {
+                    return;
+                }
+                trim(entry, entry.whole ? 0 : entry.budgetBytes);
+                enforced++;
+                Log.i(TAG, entry.name + " over budget: " + kilobytes(before) + " -> "
+                        + kilobytes(entry.cache.sizeBytes()));
+            }
+        });
+    }
+
+    /**
+     * Only the levels still sent at API 34 are named; older platforms also
+     * send deeper levels, which count as background
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_BACKGROUND) {
+            lastLevel = level;
+            trimAll(1, true);
+        } else if (level >= TRIM_MEMORY_UI_HIDDEN) {
+            lastLevel = level;
+            trimAll(2, false);
+        }
+    }
+
+    /**
+     * Required by ComponentCallbacks though deprecated; platforms that still
+     * call it also send onTrimMemory, which does the work
+     */
+    @SuppressWarnings("deprecation")
+    @Override
+    public void onLowMemory() {
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    public String getProcess() {
+        return process;
+    }
+
+    /**
+     * Keep the latest usage another process reported, replacing its last report
+     */
+    public synchronized void putRemoteUsage(String remoteProcess, Map<String, String> usage) {
+        if (remoteProcess != null && !remoteProcess.equals(process)) {
+            remoteUsage.put(remoteProcess, new LinkedHashMap<>(usage));
+        }
+    }
+
+    /**
+     * Usage per cache against its budget, for diagnostics: this process's
+     * caches, then the last report from each other process. Keys carry the
+     * process name, so reports from several processes can be merged.
+     */
+    public Map<String, String> getUsage() {
+        Map<String, String> usage = new LinkedHashMap<>();
+        String prefix = "[" + process + "] ";
+        long total = 0;
+        for (Entry entry : snapshot()) {
+            long bytes = entry.cache.sizeBytes();
+            total += bytes;
+            usage.put(prefix + "cache." + entry.name, kilobytes(bytes) + " / "
+                    + kilobytes(entry.budgetBytes) + (entry.whole ? " whole" : ""));
+        }
+        usage.put(prefix + "cacheTotal", kilobytes(total));
+        usage.put(prefix + "trimLevel", String.valueOf(lastLevel));
+        usage.put(prefix + "trims", String.valueOf(trims));
+        usage.put(prefix + "overBudgetTrims", String.valueOf(enforced));
+        synchronized (this) {
+            for (Map<String, String> report : remoteUsage.values()) {
+                usage.putAll(report);
+            }
+        }
+        return usage;
+    }
+
+    /**
+     * Shrink every cache to quarters/4 of its budget, dropping whole ones if releaseWhole
+     */
+    private void trimAll(final long quarters, final boolean releaseWhole) {
+        final List<Entry> targets = snapshot();
+        trimHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                long before = 0;
+                long after = 0;
+                for (Entry entry : targets) {
+                    before += entry.cache.sizeBytes();
+                    if (!entry.whole) {
+                        trim(entry, entry.budgetBytes * quarters / 4);
+                    } else if (releaseWhole) {
+                        trim(entry, 0);
+                    }
+                    after += entry.cache.sizeBytes();
+                }
+                trims++;
+                Log.i(TAG, "Trimmed to " + quarters + "/4 of budget: "
+                        + kilobytes(before) + " -> " + kilobytes(after));
+            }
+        });
+    }
+
+    private static void trim(Entry entry, long maxBytes) {
+        try {
+            entry.cache.trimTo(maxBytes);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Error trimming " + entry.name + ": " + e.getMessage());
+        }
+    }
+
+    private synchronized List<Entry> snapshot() {
+        return new ArrayList<>(entries.values());
+    }
+
+    /**
+     * Short name of this process: the part after the colon, or "main"
+     */
+    private static String processName(Context context) {
+        String name = null;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            name = Application.getProcessName();
+        } else {
+            ActivityManager manager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+            List<ActivityManager.RunningAppProcessInfo> running =
+                    manager != null ? manager.getRunningAppProcesses() : null;
+            if (running != null) {
+                for (ActivityManager.RunningAppProcessInfo info : running) {
+                    if (info.pid == Process.myPid()) {
+                        name = info.processName;
+                    }
+                }
+            }
+        }
+        int colon = name != null ? name.indexOf(':') : -1;
+        return colon >= 0 ? name.substring(colon + 1) : "main";
+    }
+
+    private static String kilobytes(long bytes) {
+        return (bytes + 1023) / 1024 + " KB";
+    }
+}
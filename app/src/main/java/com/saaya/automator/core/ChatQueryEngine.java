@@ -0,0 +1,218 @@
+package com.saaya.automator.core;
+
+import com.saaya.automator.data.SaayaMemoryDB;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * ChatQueryEngine - Answers stats questions typed into the chat
+ * Parses a small set of intents and answers them from the daily bucket
+ * aggregates, never from shadow_logs. Call from a background thread.
+ */
+public class ChatQueryEngine {
+
+    enum Intent {
+        MESSAGE_COUNT,
+        TOP_APP,
+        TOP_RECIPIENT,
+        DIAGNOSTICS,
+        DASHBOARD,
+        HOW_IT_WORKS,
+        UNKNOWN
+    }
+
+    enum Period {
+        TODAY("aaj"),
+        WEEK("is hafte"),
+        MONTH("is mahine"),
+        ALL_TIME("ab tak");
+
+        final String label;
+
+        Period(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final Set<String> COUNT_WORDS = words("many", "kitne", "kitni", "count", "number");
+    private static final Set<String> MESSAGE_WORDS = words("message", "messages", "msg", "msgs", "texts");
+    private static final Set<String> APP_WORDS = words("app", "apps", "application");
+    private static final Set<String> WHO_WORDS = words("who", "whom", "kis", "kisko", "kisse", "kise", "contact", "person");
+    private static final Set<String> MOST_WORDS = words("top", "most", "sabse", "zyada", "favorite", "favourite", "which", "konsi", "kaunsi");
+    private static final Set<String> DIAGNOSTICS_WORDS = words("diagnostics", "health", "load", "mode");
+    private static final Set<String> DASHBOARD_WORDS = words("stats", "dashboard");
+    private static final Set<String> HOW_WORDS = words("how", "kaise");
+
+    private static final Set<String> TODAY_WORDS = words("today", "aaj");
+    private static final Set<String> WEEK_WORDS = words("week", "hafte", "hafta");
+    private static final Set<String> MONTH_WORDS = words("month", "mahine", "mahina");
+    private static final Set<String> ALL_TIME_WORDS = words("ever", "all", "total", "kabhi");
+
+    private final SaayaMemoryDB memoryDB;
+
+    public ChatQueryEngine(SaayaMemoryDB memoryDB) {
+        this.memoryDB = memoryDB;
+    }
+
+    /**
+     * Reply to a chat message; always returns something to say
+     */
+    public String answer(String userMessage) {
+        Set<String> tokens = tokenize(userMessage);
+        Intent intent = parseIntent(tokens);
+
+        switch (intent) {
+            case MESSAGE_COUNT:
+                return answerMessageCount(parsePeriod(tokens, Period.TODAY));
+
+            case TOP_APP:
+                return answerTopApp(parsePeriod(tokens, Period.WEEK));
+
+            case TOP_RECIPIENT:
+                return answerTopRecipient(parsePeriod(tokens, Period.ALL_TIME));
+
+            case DIAGNOSTICS:
+                return answerDiagnostics();
+
+            case DASHBOARD:
+                return "Dashboard dekhne ke liye upar right corner mein menu icon pe tap karen.";
+
+            case HOW_IT_WORKS:
+                return "Main accessibility service use karke aapki messages observe karta hoon aur patterns seekhta hoon. Privacy first - passwords kabhi nahi record hote.";
+
+            default:
+                return "Note kar liya sir! Main aapki writing style samajh raha hoon.";
+        }
+    }
+
+    static Intent parseIntent(Set<String> tokens) {
+        if (containsAny(tokens, WHO_WORDS) && containsAny(tokens, MOST_WORDS)) {
+            return Intent.TOP_RECIPIENT;
+        }
+        if (containsAny(tokens, APP_WORDS) && containsAny(tokens, MOST_WORDS)) {
+            return Intent.TOP_APP;
+        }
+        if (containsAny(tokens, COUNT_WORDS) && containsAny(tokens, MESSAGE_WORDS)) {
+            return Intent.MESSAGE_COUNT;
+        }
+        if (containsAny(tokens, DIAGNOSTICS_WORDS)) {
+            return Intent.DIAGNOSTICS;
+        }
+        if (containsAny(tokens, DASHBOARD_WORDS)) {
+            return Intent.DASHBOARD;
+        }
+        if (containsAny(tokens, HOW_WORDS)) {
+            return Intent.HOW_IT_WORKS;
+        }
+        return Intent.UNKNOWN;
+    }
+
+    static Period parsePeriod(Set<String> tokens, Period fallback) {
+        if (containsAny(tokens, TODAY_WORDS)) return Period.TODAY;
+        if (containsAny(tokens, WEEK_WORDS)) return Period.WEEK;
+        if (containsAny(tokens, MONTH_WORDS)) return Period.MONTH;
+        if (containsAny(tokens, ALL_TIME_WORDS)) return Period.ALL_TIME;
+        return fallback;
+    }
+
+    private String answerMessageCount(Period period) {
+        int count = memoryDB.getMessageCount(fromDay(period), today());
+        return capitalize(period.label) + " aap ne " + count + " messages bheje.";
+    }
+
+    private String answerTopApp(Period period) {
+        List<SaayaMemoryDB.AppUsage> apps = memoryDB.getTopApps(fromDay(period), today(), 1);
+        if (apps.isEmpty()) {
+            return capitalize(period.label) + " koi message record nahi hua.";
+        }
+        SaayaMemoryDB.AppUsage top = apps.get(0);
+        return capitalize(period.label) + " sabse zyada " + top.appName
+                + " use hua (" + top.count + " messages).";
+    }
+
+    private String answerTopRecipient(Period period) {
+        List<SaayaMemoryDB.ContactUsage> contacts =
+                memoryDB.getTopRecipients(fromDay(period), today(), 1);
+        if (contacts.isEmpty()) {
+            return capitalize(period.label) + " kisi contact ka naam detect nahi hua.";
+        }
+        SaayaMemoryDB.ContactUsage top = contacts.get(0);
+        return capitalize(period.label) + " aap ne sabse zyada " + top.recipientName
+                + " ko message kiya (" + top.count + " messages).";
+    }
+
+    private String answerDiagnostics() {
+        SaayaService service = SaayaService.getInstance();
+        if (service == null || !service.isServiceActive()) {
+            return "Service abhi inactive hai.";
+        }
+
+        StringBuilder reply = new StringBuilder("Service diagnostics:");
+        for (Map.Entry<String, String> entry : service.getDiagnostics().entrySet()) {
+            reply.append('\n').append(entry.getKey()).append(": ").append(entry.getValue());
+        }
+        return reply.toString();
+    }
+
+    private static int today() {
+        return SaayaMemoryDB.epochDay(System.currentTimeMillis());
+    }
+
+    private static int fromDay(Period period) {
+        switch (period) {
+            case TODAY:
+                return today();
+            case WEEK:
+                return today() - 6;
+            case MONTH:
+                return today() - 29;
+            default:
+                return Integer.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Lower-cased words of the message, split on anything that is not a letter or digit
+     */
+    static Set<String> tokenize(String message) {
+        Set<String> tokens = new HashSet<>();
+        if (message == null) {
+            return tokens;
+        }
+
+        String lower = message.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean wordChar = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                tokens.add(lower.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    private static boolean containsAny(Set<String> tokens, Set<String> candidates) {
+        for (String candidate : candidates) {
+            if (tokens.contains(candidate)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Set<String> words(String... words) {
+        return new HashSet<>(Arrays.asList(words));
+    }
+
+    private static String capitalize(String text) {
+        return Character.toUpperCase(text.charAt(0)) + text.substring(1);
+    }
+}
@@ -0,0 +1,418 @@
+package com.saaya.automator.core;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.saaya.automator.BuildConfig;
+import com.saaya.automator.data.SaayaMemoryDB;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * EventPipeline - Off-main-thread processing stage for SaayaService
+ * The service callback only snapshots the event and submits it here. Recipient
+ * resolution, keystroke coalescing and DB writes run on a dedicated
+ * HandlerThread. The queue is bounded, and a typing snapshot that waited too
+ * long is dropped once a newer one for the same draft is queued behind it;
+ * window changes and cleared fields are always processed.
+ * Coalescing window and recipient reuse follow the LoadGovernor's current mode.
+ * With tracing on, each event's queue wait and each draft's life from first
+ * keystroke to database commit show up as async sections.
+ */
+class EventPipeline implements Handler.Callback {
+
+    private static final String TAG = "EventPipeline";
+    private static final boolean DEBUG = BuildConfig.DEBUG;
+
+    // Queue bounds
+    static final int MAX_PENDING = 256;
+    static final long STALE_EVENT_MS = 3000;
+
+    private static final int MSG_EVENT = 1;
+    private static final int MSG_FLUSH = 2;
+    private static final int MSG_FLUSH_ALL = 3;
+    private static final int MSG_EVALUATE = 4;
+
+    // How often old history is expired while the service runs (SaayaMemoryDB.applyRetention)
+    static final long RETENTION_INTERVAL_MS = 24 * 60 * 60 * 1000L;
+
+    // Recipient cache budget for CacheManager; one entry per monitored app at most
+    private static final String RECIPIENT_CACHE = "recipients";
+    private static final long RECIPIENT_CACHE_BYTES = 8 * 1024;
+    // Map entry, holder and name string overhead, chars aside
+    private static final int RECIPIENT_ENTRY_BYTES = 96;
+
+    /**
+     * Looks up the conversation partner on screen; called on the pipeline thread
+     */
+    interface RecipientResolver {
+        String resolveRecipient(String packageName);
+    }
+
+    /**
+     * Minimal copy of an AccessibilityEvent, taken on the main thread
+     */
+    static final class EventSnapshot {
+        static final int TEXT_CHANGED = 1;
+        static final int WINDOW_CHANGED = 2;
+
+        final int type;
+        final String packageName;
+        final String text;          // field text, or activity class for WINDOW_CHANGED
+        final long timestamp;
+        final long enqueuedAt;
+        // Async trace cookie for the time spent queued; set by submit()
+        int queueTrace;
+        // A newer snapshot of the same draft is queued; set by submit()
+        volatile boolean superseded;
+
+        EventSnapshot(int type, String packageName, String text, long timestamp) {
+            this.type = type;
+            this.packageName = packageName;
+            this.text = text;
+            this.timestamp = timestamp;
+            this.enqueuedAt = SystemClock.uptimeMillis();
+        }
+
+        /**
+         * Typing that only replaces earlier text; an empty field means the
+         * message was sent and ends the draft
+         */
+        boolean isTyping() {
+            return type == TEXT_CHANGED && text != null && !text.isEmpty();
+        }
+    }
+
+    /**
+     * Latest text of a field being typed into, saved when typing pauses or the field clears
+     */
+    private static final class Draft {
+        final String packageName;
+        final String recipient;
+        final int commitTrace;
+        String text;
+        long timestamp;
+
+        Draft(String packageName, String recipient) {
+            this.packageName = packageName;
+            this.recipient = recipient;
+            this.commitTrace = SaayaTrace.beginAsync(SaayaTrace.DRAFT_TO_COMMIT);
+        }
+    }
+
+    /**
+     * Last recipient seen per package, reused while the governor defers resolution
+     */
+    private static final class CachedRecipient {
+        final String name;
+        final long resolvedAt;
+
+        CachedRecipient(String name, long resolvedAt) {
+            this.name = name;
+            this.resolvedAt = resolvedAt;
+        }
+    }
+
+    private final HandlerThread thread;
+    private final Handler handler;
+    private final SaayaMemoryDB memoryDB;
+    private final RecipientResolver resolver;
+    private final LoadGovernor governor;
+    private final CacheManager cacheManager;
+
+    // Pipeline thread only
+    private final Map<String, Draft> drafts = new HashMap<>();
+    private final Map<String, CachedRecipient> recipients = new HashMap<>();
+    // Written on the pipeline thread, read by CacheManager
+    private volatile long recipientBytes;
+
+    /**
+     * The recipient cache as CacheManager sees it; trims hop onto the pipeline thread
+     */
+    private final CacheManager.Cache recipientCache = new CacheManager.Cache() {
+        @Override
+        public long sizeBytes() {
+            return recipientBytes;
+        }
+
+        @Override
+        public void trimTo(long maxBytes) {
+            if (recipientBytes <= maxBytes) {
+                return;
+            }
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    // Too small to shrink by halves; the next event resolves afresh
+                    recipients.clear();
+                    recipientBytes = 0;
+                }
+            });
+        }
+    };
+
+    // Main thread only (submit): the latest queued typing snapshot per package
+    // since that package's last send or window change
+    private final Map<String, EventSnapshot> latestTyping = new HashMap<>();
+
+    /**
+     * Expire history past the configured retention, then again a day later
+     */
+    private final Runnable retention = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                memoryDB.applyRetention(System.currentTimeMillis());
+            } catch (Exception e) {
+                Log.e(TAG, "Retention failed: " + e.getMessage());
+            }
+            handler.postDelayed(this, RETENTION_INTERVAL_MS);
+        }
+    };
+
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong droppedFull = new AtomicLong();
+    private final AtomicLong droppedStale = new AtomicLong();
+    private final AtomicLong saved = new AtomicLong();
+
+    EventPipeline(SaayaMemoryDB memoryDB, RecipientResolver resolver, LoadGovernor governor,
+                  CacheManager cacheManager) {
+        this.memoryDB = memoryDB;
+        this.resolver = resolver;
+        this.governor = governor;
+        this.cacheManager = cacheManager;
+        this.thread = new HandlerThread("SaayaEvents", Process.THREAD_PRIORITY_BACKGROUND);
+        this.thread.start();
+        this.handler = new Handler(thread.getLooper(), this);
+        cacheManager.register(RECIPIENT_CACHE, RECIPIENT_CACHE_BYTES, recipientCache);
+
+        // Build the database's in-memory indexes before the first read or save needs them
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    memoryDB.warmUp();
+                } catch (Exception e) {
+                    Log.e(TAG, "Warm-up failed: " + e.getMessage());
+                }
+            }
+        });
+        if (BuildConfig.LOG_RETENTION_MONTHS > 0) {
+            handler.post(retention);
+        }
+    }
+
+    /**
+     * Hand an event to the pipeline thread; returns false if it was dropped.
+     * Called on the main thread only.
+     */
+    boolean submit(EventSnapshot snapshot) {
+        governor.recordIntake();
+        if (pending.incrementAndGet() > MAX_PENDING) {
+            pending.decrementAndGet();
+            droppedFull.incrementAndGet();
+            return false;
+        }
+        if (snapshot.isTyping()) {
+            EventSnapshot previous = latestTyping.put(snapshot.packageName, snapshot);
+            if (previous != null) {
+                previous.superseded = true;
+            }
+        } else {
+            // A send or window change ends the draft; earlier text must reach the database
+            latestTyping.remove(snapshot.packageName);
+        }
+        snapshot.queueTrace = SaayaTrace.beginAsync(SaayaTrace.QUEUE_WAIT);
+        handler.obtainMessage(MSG_EVENT, snapshot).sendToTarget();
+        return true;
+    }
+
+    /**
+     * Save outstanding drafts, then stop the thread
+     */
+    void shutdown() {
+        cacheManager.unregister(RECIPIENT_CACHE);
+        handler.removeCallbacks(retention);
+        handler.sendEmptyMessage(MSG_FLUSH_ALL);
+        thread.quitSafely();
+    }
+
+    int getBacklog() {
+        return pending.get();
+    }
+
+    long getDroppedCount() {
+        return droppedFull.get() + droppedStale.get();
+    }
+
+    long getSavedCount() {
+        return saved.get();
+    }
+
+    @Override
+    public boolean handleMessage(Message msg) {
+        switch (msg.what) {
+            case MSG_EVENT:
+                int backlog = pending.decrementAndGet();
+                governor.maybeEvaluate(backlog);
+                scheduleEvaluation();
+                EventSnapshot snapshot = (EventSnapshot) msg.obj;
+                SaayaTrace.endAsync(SaayaTrace.QUEUE_WAIT, snapshot.queueTrace);
+                SaayaTrace.counter(SaayaTrace.BACKLOG, backlog);
+                // Only text the draft would overwrite anyway is safe to skip
+                if (snapshot.superseded
+                        && SystemClock.uptimeMillis() - snapshot.enqueuedAt > STALE_EVENT_MS) {
+                    droppedStale.incrementAndGet();
+                    return true;
+                }
+                process(snapshot);
+                return true;
+
+            case MSG_FLUSH:
+                flush((Draft) msg.obj);
+                return true;
+
+            case MSG_FLUSH_ALL:
+                handler.removeMessages(MSG_EVALUATE);
+                for (Draft draft : drafts.values().toArray(new Draft[0])) {
+                    flush(draft);
+                }
+                return true;
+
+            case MSG_EVALUATE:
+                governor.maybeEvaluate(pending.get());
+                scheduleEvaluation();
+                return true;
+
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Above NORMAL, evaluate again after an interval even if no event comes,
+     * so the governor steps back down once a burst is over. At NORMAL nothing
+     * is scheduled and an idle pipeline stays asleep.
+     */
+    private void scheduleEvaluation() {
+        if (governor.getMode() != LoadGovernor.Mode.NORMAL
+                && !handler.hasMessages(MSG_EVALUATE)) {
+            handler.sendEmptyMessageDelayed(MSG_EVALUATE, LoadGovernor.EVALUATE_INTERVAL_MS);
+        }
+    }
+
+    private void process(EventSnapshot snapshot) {
+        switch (snapshot.type) {
+            case EventSnapshot.TEXT_CHANGED:
+                coalesce(snapshot);
+                break;
+
+            case EventSnapshot.WINDOW_CHANGED:
+                if (DEBUG) {
+                    Log.d(TAG, "App opened: " + snapshot.packageName + " - " + snapshot.text);
+                }
+                windowChanged(snapshot.packageName);
+                break;
+        }
+    }
+
+    /**
+     * Keep only the latest text per package. An emptied field means the
+     * message was sent, so the draft is saved right away.
+     */
+    private void coalesce(EventSnapshot snapshot) {
+        SaayaTrace.begin(SaayaTrace.COALESCE);
+        try {
+            Draft draft = drafts.get(snapshot.packageName);
+
+            if (snapshot.text == null || snapshot.text.isEmpty()) {
+                if (draft != null) {
+                    flush(draft);
+                }
+                return;
+            }
+
+            if (draft == null) {
+                // Resolve once per burst, while the user is still in the conversation
+                draft = new Draft(snapshot.packageName, recipientFor(snapshot.packageName));
+                drafts.put(snapshot.packageName, draft);
+            }
+            draft.text = snapshot.text;
+            draft.timestamp = snapshot.timestamp;
+
+            handler.removeMessages(MSG_FLUSH, draft);
+            handler.sendMessageDelayed(handler.obtainMessage(MSG_FLUSH, draft),
+                    governor.getMode().coalesceWindowMs);
+        } finally {
+            SaayaTrace.end();
+        }
+    }
+
+    /**
+     * A new window in a package may be a different conversation, so its draft
+     * is saved under the recipient it was typed to, and the next draft
+     * resolves its recipient afresh instead of reusing the cached one
+     */
+    private void windowChanged(String packageName) {
+        Draft draft = drafts.get(packageName);
+        if (draft != null) {
+            flush(draft);
+        }
+        CachedRecipient previous = recipients.remove(packageName);
+        if (previous != null) {
+            recipientBytes -= recipientBytes(previous.name);
+        }
+    }
+
+    /**
+     * Node queries are the most expensive step, so under pressure reuse a recent answer
+     */
+    private String recipientFor(String packageName) {
+        long now = SystemClock.uptimeMillis();
+        CachedRecipient cached = recipients.get(packageName);
+        if (cached != null && now - cached.resolvedAt < governor.getMode().recipientReuseMs) {
+            return cached.name;
+        }
+
+        String name;
+        SaayaTrace.begin(SaayaTrace.RESOLVE_RECIPIENT);
+        try {
+            name = resolver.resolveRecipient(packageName);
+        } finally {
+            SaayaTrace.end();
+        }
+        CachedRecipient previous = recipients.put(packageName, new CachedRecipient(name, now));
+        recipientBytes += recipientBytes(name) - (previous != null ? recipientBytes(previous.name) : 0);
+        cacheManager.enforce(RECIPIENT_CACHE);
+        return name;
+    }
+
+    private static long recipientBytes(String name) {
+        return RECIPIENT_ENTRY_BYTES + (name != null ? 2L * name.length() : 0);
+    }
+
+    private void flush(Draft draft) {
+        handler.removeMessages(MSG_FLUSH, draft);
+        drafts.remove(draft.packageName);
+
+        try {
+            if (memoryDB.saveLog(draft.timestamp, draft.packageName, draft.recipient, draft.text)) {
+                saved.incrementAndGet();
+            }
+            if (DEBUG) {
+                Log.d(TAG, "Saved: " + draft.packageName + " -> " + draft.recipient);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Database error: " + e.getMessage());
+        } finally {
+            SaayaTrace.endAsync(SaayaTrace.DRAFT_TO_COMMIT, draft.commitTrace);
+        }
+    }
+}
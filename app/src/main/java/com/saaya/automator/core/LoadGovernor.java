@@ -0,0 +1,162 @@
+package com.saaya.automator.core;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * LoadGovernor - Adaptive load shedding for event intake
+ * Watches intake rate, pipeline backlog, battery saver and thermal status and
+ * picks an operating mode. Higher modes raise the accessibility notification
+ * timeout, widen the coalescing window and reuse cached recipients for longer.
+ * Evaluated from the pipeline thread while events flow; above NORMAL the
+ * pipeline also schedules evaluations of its own, so the mode steps back down
+ * after a burst even if no further event arrives. At NORMAL an idle service
+ * never wakes up for it.
+ */
+class LoadGovernor {
+
+    private static final String TAG = "LoadGovernor";
+
+    static final long EVALUATE_INTERVAL_MS = 2000;
+
+    // Pressure thresholds
+    private static final float CONSERVE_RATE = 20f;   // events per second
+    private static final float SHED_RATE = 50f;
+    private static final int CONSERVE_BACKLOG = EventPipeline.MAX_PENDING / 4;
+    private static final int SHED_BACKLOG = EventPipeline.MAX_PENDING * 5 / 8;
+
+    // Calm evaluations needed before stepping down one mode
+    private static final int CALM_EVALUATIONS = 3;
+
+    enum Mode {
+        NORMAL(100, 1500, 0),
+        CONSERVE(300, 3000, 30_000),
+        SHED(1000, 6000, 120_000);
+
+        final int notificationTimeoutMs;
+        final long coalesceWindowMs;
+        final long recipientReuseMs;
+
+        Mode(int notificationTimeoutMs, long coalesceWindowMs, long recipientReuseMs) {
+            this.notificationTimeoutMs = notificationTimeoutMs;
+            this.coalesceWindowMs = coalesceWindowMs;
+            this.recipientReuseMs = recipientReuseMs;
+        }
+    }
+
+    /**
+     * Notified on the pipeline thread when the mode changes
+     */
+    interface Listener {
+        void onModeChanged(Mode mode);
+    }
+
+    private final PowerManager powerManager;
+    private final Listener listener;
+    private final AtomicInteger intake = new AtomicInteger();
+
+    private volatile Mode mode = Mode.NORMAL;
+    private volatile float intakeRate;
+    private volatile String reason = "idle";
+    private long lastEvaluation = SystemClock.uptimeMillis();
+    private int calmEvaluations;
+
+    LoadGovernor(Context context, Listener listener) {
+        this.powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        this.listener = listener;
+    }
+
+    /**
+     * Count one accepted event; called on the main thread
+     */
+    void recordIntake() {
+        intake.incrementAndGet();
+    }
+
+    /**
+     * Re-evaluate if the interval has passed; called on the pipeline thread
+     */
+    void maybeEvaluate(int backlog) {
+        long now = SystemClock.uptimeMillis();
+        long elapsed = now - lastEvaluation;
+        if (elapsed < EVALUATE_INTERVAL_MS) {
+            return;
+        }
+        lastEvaluation = now;
+        intakeRate = intake.getAndSet(0) * 1000f / elapsed;
+
+        Mode target = targetMode(backlog);
+        Mode current = mode;
+
+        if (target.ordinal() > current.ordinal()) {
+            calmEvaluations = 0;
+            setMode(target);
+        } else if (target.ordinal() < current.ordinal()) {
+            if (++calmEvaluations >= CALM_EVALUATIONS) {
+                calmEvaluations = 0;
+                setMode(Mode.values()[current.ordinal() - 1]);
+            }
+        } else {
+            calmEvaluations = 0;
+        }
+    }
+
+    Mode getMode() {
+        return mode;
+    }
+
+    float getIntakeRate() {
+        return intakeRate;
+    }
+
+    String getReason() {
+        return reason;
+    }
+
+    private Mode targetMode(int backlog) {
+        int thermal = thermalStatus();
+
+        if (thermal >= PowerManager.THERMAL_STATUS_SEVERE) {
+            reason = "thermal";
+            return Mode.SHED;
+        }
+        if (intakeRate >= SHED_RATE || backlog >= SHED_BACKLOG) {
+            reason = intakeRate >= SHED_RATE ? "intake rate" : "backlog";
+            return Mode.SHED;
+        }
+        if (thermal >= PowerManager.THERMAL_STATUS_MODERATE) {
+            reason = "thermal";
+            return Mode.CONSERVE;
+        }
+        if (powerManager != null && powerManager.isPowerSaveMode()) {
+            reason = "battery saver";
+            return Mode.CONSERVE;
+        }
+        if (intakeRate >= CONSERVE_RATE || backlog >= CONSERVE_BACKLOG) {
+            reason = intakeRate >= CONSERVE_RATE ? "intake rate" : "backlog";
+            return Mode.CONSERVE;
+        }
+
+        reason = "none";
+        return Mode.NORMAL;
+    }
+
+    private int thermalStatus() {
+        if (powerManager == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+            return PowerManager.THERMAL_STATUS_NONE;
+        }
+        return powerManager.getCurrentThermalStatus();
+    }
+
+    private void setMode(Mode newMode) {
+        mode = newMode;
+        Log.i(TAG, "Mode -> " + newMode + " (" + reason + ", "
+                + Math.round(intakeRate) + " events/s)");
+        listener.onModeChanged(newMode);
+    }
+}
@@ -0,0 +1,65 @@
+package com.saaya.automator.core;
+
+/**
+ * PackageTable - Allocation-free package filter for the event hot path
+ * Matches the CharSequence from an AccessibilityEvent against a fixed set of
+ * package names without turning it into a String. A name matches an entry
+ * exactly or as a dotted sub-package (com.whatsapp.w4b matches com.whatsapp).
+ */
+final class PackageTable {
+
+    private final String[] packages;
+    private final int minLength;
+
+    PackageTable(String... packages) {
+        this.packages = packages.clone();
+        int min = Integer.MAX_VALUE;
+        for (String pkg : packages) {
+            min = Math.min(min, pkg.length());
+        }
+        this.minLength = min;
+    }
+
+    /**
+     * Index of the matching entry, or -1; never allocates
+     */
+    int indexOf(CharSequence name) {
+        if (name == null) {
+            return -1;
+        }
+        int length = name.length();
+        if (length < minLength) {
+            return -1;
+        }
+
+        for (int i = 0; i < packages.length; i++) {
+            String pkg = packages[i];
+            int pkgLength = pkg.length();
+            if (length != pkgLength && (length < pkgLength || name.charAt(pkgLength) != '.')) {
+                continue;
+            }
+            if (regionMatches(name, pkg, pkgLength)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The name as a String, reusing the table's instance for exact matches
+     */
+    String nameOf(CharSequence name, int index) {
+        String pkg = packages[index];
+        return name.length() == pkg.length() ? pkg : name.toString();
+    }
+
+    private static boolean regionMatches(CharSequence name, String pkg, int length) {
+        // Package names share prefixes ("com."), so compare from the end
+        for (int i = length - 1; i >= 0; i--) {
+            if (name.charAt(i) != pkg.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
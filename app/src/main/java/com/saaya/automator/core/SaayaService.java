@@ -1,25 +1,40 @@
 package com.saaya.automator.core;
 
 import android.accessibilityservice.AccessibilityService;
+import android.accessibilityservice.AccessibilityServiceInfo;
 import android.content.Intent;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import android.view.accessibility.AccessibilityEvent;
 import android.view.accessibility.AccessibilityNodeInfo;
 
+import com.saaya.automator.BuildConfig;
 import com.saaya.automator.data.SaayaMemoryDB;
 
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 /**
  * SaayaService - Core Accessibility Service with Threading
  * CRITICAL FIX: All database operations run on background threads
+ * The main looper only snapshots events; EventPipeline does the rest.
  */
-public class SaayaService extends AccessibilityService {
+public class SaayaService extends AccessibilityService
+        implements EventPipeline.RecipientResolver, LoadGovernor.Listener {
 
     private static final String TAG = "SaayaService";
+    // Per-event logging is compiled out of release builds
+    private static final boolean DEBUG = BuildConfig.DEBUG;
     private static SaayaService instance;
     private SaayaMemoryDB memoryDB;
+    private EventPipeline pipeline;
+    private LoadGovernor governor;
+    private CacheManager cacheManager;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
     private boolean isActive = false;
 
     // Packages to monitor
@@ -30,6 +45,7 @@ public class SaayaService extends AccessibilityService {
         "com.twitter.android",
         "com.snapchat.android"
     };
+    private static final PackageTable MONITORED = new PackageTable(MONITORED_PACKAGES);
 
     // Regex patterns
     private static final Pattern PHONE_PATTERN = Pattern.compile("^\\+?[0-9\\s\\-()]+$");
@@ -39,6 +55,10 @@ public class SaayaService extends AccessibilityService {
         super.onCreate();
         instance = this;
         memoryDB = SaayaMemoryDB.getInstance(this);
+        governor = new LoadGovernor(this, this);
+        // Trims under memory pressure arrive through the application context
+        cacheManager = CacheManager.getInstance(this);
+        pipeline = new EventPipeline(memoryDB, this, governor, cacheManager);
         Log.d(TAG, "Saaya Service Created");
     }
 
@@ -60,76 +80,81 @@ public class SaayaService extends AccessibilityService {
             return;
         }
 
-        String packageName = event.getPackageName() != null ? 
-                           event.getPackageName().toString() : "";
+        // Rejected events must not allocate: int compare first, then the package table
+        int eventType = event.getEventType();
+        if (eventType != AccessibilityEvent.TYPE_VIEW_TEXT_CHANGED
+                && eventType != AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED) {
+            return;
+        }
 
         // Only monitor specific packages
-        if (!isMonitoredPackage(packageName)) {
+        CharSequence source = event.getPackageName();
+        int match = MONITORED.indexOf(source);
+        if (match < 0) {
             return;
         }
+        String packageName = MONITORED.nameOf(source, match);
 
-        int eventType = event.getEventType();
-
-        switch (eventType) {
-            case AccessibilityEvent.TYPE_VIEW_TEXT_CHANGED:
-                handleTextChanged(event, packageName);
-                break;
-
-            case AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED:
-                handleWindowStateChanged(event, packageName);
-                break;
+        SaayaTrace.begin(SaayaTrace.DISPATCH);
+        try {
+            switch (eventType) {
+                case AccessibilityEvent.TYPE_VIEW_TEXT_CHANGED:
+                    handleTextChanged(event, packageName);
+                    break;
+
+                case AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED:
+                    handleWindowStateChanged(event, packageName);
+                    break;
+            }
+        } finally {
+            SaayaTrace.end();
         }
     }
 
     /**
-     * CRITICAL: Handle text changes with THREADING
+     * CRITICAL: Snapshot text changes and hand them to the pipeline thread
      */
     private void handleTextChanged(AccessibilityEvent event, String packageName) {
-        AccessibilityNodeInfo source = event.getSource();
-        
-        if (source == null) {
-            return;
-        }
-
         // SECURITY: Ignore password fields
-        if (source.isPassword()) {
-            Log.d(TAG, "⚠ Password field detected - IGNORED");
-            source.recycle();
+        if (event.isPassword()) {
+            if (DEBUG) {
+                Log.d(TAG, "Password field detected - IGNORED");
+            }
             return;
         }
 
-        // Extract message text
-        CharSequence text = source.getText();
-        if (text != null && text.length() > 0) {
-            String messageText = text.toString();
-            
-            // Detect recipient
-            String recipientName = detectRecipient(getRootInActiveWindow(), packageName);
-            
-            // CRITICAL FIX: Save to database on background thread
-            final String finalRecipient = recipientName;
-            final String finalMessage = messageText;
-            final String finalPackage = packageName;
-            
-            new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        memoryDB.saveLog(
-                            System.currentTimeMillis(),
-                            finalPackage,
-                            finalRecipient,
-                            finalMessage
-                        );
-                        Log.d(TAG, "📝 Saved: " + finalPackage + " -> " + finalRecipient);
-                    } catch (Exception e) {
-                        Log.e(TAG, "Database error: " + e.getMessage());
-                    }
-                }
-            }).start();
-        }
+        // The event already carries the field text; no node IPC on the main looper
+        List<CharSequence> texts = event.getText();
+        CharSequence text = texts != null && !texts.isEmpty() ? texts.get(0) : null;
 
-        source.recycle();
+        pipeline.submit(new EventPipeline.EventSnapshot(
+            EventPipeline.EventSnapshot.TEXT_CHANGED,
+            packageName,
+            text != null ? text.toString() : "",
+            System.currentTimeMillis()
+        ));
+    }
+
+    /**
+     * Resolve the recipient on the pipeline thread
+     */
+    @Override
+    public String resolveRecipient(String packageName) {
+        AccessibilityNodeInfo root = getRootInActiveWindow();
+        String recipient = detectRecipient(root, packageName);
+        recycle(root);
+        return recipient;
+    }
+
+    /**
+     * Return a node to the framework's pool; from API 33 nodes are not
+     * pooled and recycle() is a deprecated no-op, so it is skipped there
+     */
+    @SuppressWarnings("deprecation")
+    private static void recycle(AccessibilityNodeInfo node) {
+        if (node != null && Build.VERSION.SDK_INT < Build.VERSION_CODES.TIRAMISU) {
+            node.recycle();
+        }
     }
 
     /**
@@ -170,7 +195,7 @@ public class SaayaService extends AccessibilityService {
             }
 
             // Check if it's a phone number
-            if (PHONE_PATTERN.matcher(recipient).matches()) {
+            if (DEBUG && PHONE_PATTERN.matcher(recipient).matches()) {
                 // It's a phone number - keep as is
                 Log.d(TAG, "Detected phone number: " + recipient);
             }
@@ -188,21 +213,46 @@ public class SaayaService extends AccessibilityService {
     private void handleWindowStateChanged(AccessibilityEvent event, String packageName) {
         CharSequence className = event.getClassName();
         if (className != null) {
-            String activity = className.toString();
-            Log.d(TAG, "📱 App opened: " + packageName + " - " + activity);
+            pipeline.submit(new EventPipeline.EventSnapshot(
+                EventPipeline.EventSnapshot.WINDOW_CHANGED,
+                packageName,
+                className.toString(),
+                System.currentTimeMillis()
+            ));
         }
     }
 
     /**
-     * Check if package should be monitored
+     * Apply the governor's notification timeout; setServiceInfo runs on the main looper
      */
-    private boolean isMonitoredPackage(String packageName) {
-        for (String pkg : MONITORED_PACKAGES) {
-            if (packageName.contains(pkg)) {
-                return true;
+    @Override
+    public void onModeChanged(final LoadGovernor.Mode mode) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                AccessibilityServiceInfo info = getServiceInfo();
+                if (info != null && info.notificationTimeout != mode.notificationTimeoutMs) {
+                    info.notificationTimeout = mode.notificationTimeoutMs;
+                    setServiceInfo(info);
+                }
             }
-        }
-        return false;
+        });
+    }
+
+    /**
+     * Current load and pipeline state for display
+     */
+    public Map<String, String> getDiagnostics() {
+        Map<String, String> diagnostics = new LinkedHashMap<>();
+        diagnostics.put("mode", governor.getMode().name());
+        diagnostics.put("pressure", governor.getReason());
+        diagnostics.put("intakeRate", String.valueOf(Math.round(governor.getIntakeRate())));
+        diagnostics.put("backlog", String.valueOf(pipeline.getBacklog()));
+        diagnostics.put("dropped", String.valueOf(pipeline.getDroppedCount()));
+        diagnostics.put("saved", String.valueOf(pipeline.getSavedCount()));
+        diagnostics.put("notificationTimeout", governor.getMode().notificationTimeoutMs + " ms");
+        diagnostics.putAll(cacheManager.getUsage());
+        return diagnostics;
     }
 
     /**
@@ -234,6 +284,9 @@ public class SaayaService extends AccessibilityService {
         super.onDestroy();
         isActive = false;
         instance = null;
+        if (pipeline != null) {
+            pipeline.shutdown();
+        }
         Log.d(TAG, "Saaya Service Destroyed");
     }
 }
@@ -0,0 +1,98 @@
+package com.saaya.automator.core;
+
+import android.os.Build;
+import android.os.Trace;
+
+import com.saaya.automator.BuildConfig;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SaayaTrace - Named spans for Perfetto/systrace
+ * Thin wrapper over android.os.Trace. ENABLED is a compile-time constant from
+ * BuildConfig.TRACING, so in builds without it every call is an empty static
+ * method the compiler drops. Section names are constants below, never built
+ * per call, so tracing itself allocates nothing.
+ *
+ * Async sections (API 29+) may end on another thread than they began; the
+ * cookie returned by beginAsync links the two ends. On older devices they
+ * are skipped and only the synchronous sections appear.
+ */
+public final class SaayaTrace {
+
+    public static final boolean ENABLED = BuildConfig.TRACING;
+
+    // Service and pipeline
+    public static final String DISPATCH = "Saaya:dispatch";
+    public static final String QUEUE_WAIT = "Saaya:queueWait";
+    public static final String COALESCE = "Saaya:coalesce";
+    public static final String RESOLVE_RECIPIENT = "Saaya:resolveRecipient";
+    public static final String DRAFT_TO_COMMIT = "Saaya:draftToCommit";
+    public static final String BACKLOG = "Saaya:backlog";
+
+    // Database
+    public static final String INSERT_LOG = "Saaya:insertLog";
+    public static final String INSERT_BATCH = "Saaya:insertBatch";
+    public static final String QUERY_LOGS = "Saaya:queryLogs";
+    public static final String QUERY_SESSIONS = "Saaya:querySessions";
+    public static final String QUERY_SESSION_LOGS = "Saaya:querySessionLogs";
+    public static final String QUERY_PROFILE = "Saaya:queryProfile";
+    public static final String QUERY_STATS_TOTAL = "Saaya:queryStats.total";
+    public static final String QUERY_STATS_APP = "Saaya:queryStats.app";
+    public static final String QUERY_STATS_RECIPIENT = "Saaya:queryStats.recipient";
+    public static final String CHAT_QUERY = "Saaya:chatQuery";
+
+    // UI
+    public static final String SNAPSHOT_LOAD = "Saaya:snapshotLoad";
+    public static final String SNAPSHOT_SAVE = "Saaya:snapshotSave";
+    public static final String BIND_LOG = "Saaya:bindLog";
+    public static final String BIND_SESSION = "Saaya:bindSession";
+    public static final String BIND_CHAT = "Saaya:bindChat";
+
+    private static final AtomicInteger COOKIES = new AtomicInteger();
+
+    private SaayaTrace() {
+    }
+
+    /**
+     * Open a section on the current thread; pair with end() in a finally block
+     */
+    public static void begin(String section) {
+        if (ENABLED) {
+            Trace.beginSection(section);
+        }
+    }
+
+    public static void end() {
+        if (ENABLED) {
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * Open a section that may end on another thread; returns its cookie, 0 when not traced
+     */
+    public static int beginAsync(String section) {
+        if (ENABLED && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            int cookie = COOKIES.incrementAndGet();
+            Trace.beginAsyncSection(section, cookie);
+            return cookie;
+        }
+        return 0;
+    }
+
+    public static void endAsync(String section, int cookie) {
+        if (ENABLED && cookie != 0 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.endAsyncSection(section, cookie);
+        }
+    }
+
+    /**
+     * Counter track, e.g. queue depth
+     */
+    public static void counter(String name, long value) {
+        if (ENABLED && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.setCounter(name, value);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.saaya.automator.data;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.os.Process;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.saaya.automator.core.CacheManager;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * AppLabels - App names for the data layer, without icons
+ * SaayaMemoryDB and its indexes run in the provider process and only ever
+ * show names, so they look labels up here: PackageManager is asked for the
+ * label alone, on a background thread, and no icon is ever loaded or
+ * decoded. Until a package is resolved, callers get its built-in name.
+ * AppRegistry serves the UI, where icons are needed. One instance per process.
+ */
+final class AppLabels {
+
+    private static final String TAG = "AppLabels";
+
+    // Names used until PackageManager has answered, or if the app is not installed
+    private static final Map<String, String> KNOWN_LABELS = new HashMap<>();
+
+    static {
+        KNOWN_LABELS.put("com.whatsapp", "WhatsApp");
+        KNOWN_LABELS.put("com.whatsapp.w4b", "WhatsApp Business");
+        KNOWN_LABELS.put("com.facebook.orca", "Messenger");
+        KNOWN_LABELS.put("com.instagram.android", "Instagram");
+        KNOWN_LABELS.put("com.twitter.android", "Twitter");
+        KNOWN_LABELS.put("com.snapchat.android", "Snapchat");
+    }
+
+    private static final int CACHE_BYTES = 32 * 1024;
+    private static final int ENTRY_OVERHEAD_BYTES = 64;
+
+    private static AppLabels instance;
+
+    private final PackageManager packageManager;
+    private final ExecutorService loader = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, "SaayaAppLabels");
+        }
+    });
+
+    // Packages with a load queued or running
+    private final Set<String> inFlight = new HashSet<>();
+
+    private final LruCache<String, String> cache = new LruCache<String, String>(CACHE_BYTES) {
+        @Override
+        protected int sizeOf(String packageName, String label) {
+            return (packageName.length() + label.length()) * 2 + ENTRY_OVERHEAD_BYTES;
+        }
+    };
+
+    private AppLabels(Context context) {
+        this.packageManager = context.getPackageManager();
+
+        // The LRU evicts on put, so the budget holds without enforce()
+        CacheManager.getInstance(context).register("appLabels", CACHE_BYTES, new CacheManager.Cache() {
+            @Override
+            public long sizeBytes() {
+                return cache.size();
+            }
+
+            @Override
+            public void trimTo(long maxBytes) {
+                cache.trimToSize((int) Math.min(maxBytes, CACHE_BYTES));
+            }
+        });
+    }
+
+    static synchronized AppLabels getInstance(Context context) {
+        if (instance == null) {
+            instance = new AppLabels(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Label to show right now; starts a background load on a miss
+     */
+    String getLabel(final String packageName) {
+        if (packageName == null) {
+            return knownLabel(null);
+        }
+        String label = cache.get(packageName);
+        if (label != null) {
+            return label;
+        }
+        synchronized (inFlight) {
+            if (!inFlight.add(packageName)) {
+                return knownLabel(packageName);
+            }
+        }
+
+        loader.execute(new Runnable() {
+            @Override
+            public void run() {
+                cache.put(packageName, resolve(packageName));
+                synchronized (inFlight) {
+                    inFlight.remove(packageName);
+                }
+            }
+        });
+        return knownLabel(packageName);
+    }
+
+    /**
+     * Built-in name for a package, matching dotted sub-packages too
+     */
+    static String knownLabel(String packageName) {
+        if (packageName == null) {
+            return "Unknown";
+        }
+        String name = packageName;
+        while (true) {
+            String label = KNOWN_LABELS.get(name);
+            if (label != null) {
+                return label;
+            }
+            int dot = name.lastIndexOf('.');
+            if (dot <= 0) {
+                return packageName;
+            }
+            name = name.substring(0, dot);
+        }
+    }
+
+    private String resolve(String packageName) {
+        try {
+            ApplicationInfo app = packageManager.getApplicationInfo(packageName, 0);
+            CharSequence label = packageManager.getApplicationLabel(app);
+            return label != null ? label.toString() : knownLabel(packageName);
+        } catch (PackageManager.NameNotFoundException e) {
+            return knownLabel(packageName);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Error resolving " + packageName + ": " + e.getMessage());
+            return knownLabel(packageName);
+        }
+    }
+}
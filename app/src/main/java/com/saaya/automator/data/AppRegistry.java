@@ -0,0 +1,239 @@
+package com.saaya.automator.data;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.saaya.automator.core.CacheManager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * AppRegistry - App packages turned into names and icons for the UI
+ * Labels and icons come from PackageManager on a background thread and are
+ * kept in an LRU bounded by bytes, icons already downsampled to list size.
+ * Until a package is loaded, callers get its built-in name, so nothing ever
+ * waits on PackageManager. Each package is resolved by one task however many
+ * rows ask for it at once. Only the UI uses it: the data layer in the
+ * provider process needs names alone and goes through AppLabels, so icons
+ * are never decoded there. One instance per process.
+ */
+public final class AppRegistry {
+
+    private static final String TAG = "AppRegistry";
+
+    private static final int ICON_SIZE_DP = 24;
+    private static final int CACHE_BYTES = 1024 * 1024;
+    private static final int ENTRY_OVERHEAD_BYTES = 64;
+
+    private static AppRegistry instance;
+
+    /**
+     * Resolved label and icon; icon is null if the app is not installed
+     */
+    public static final class AppInfo {
+        public final String label;
+        public final Bitmap icon;
+
+        AppInfo(String label, Bitmap icon) {
+            this.label = label;
+            this.icon = icon;
+        }
+    }
+
+    /**
+     * Called on the main thread once a package is resolved
+     */
+    public interface Listener {
+        void onAppLoaded(String packageName, AppInfo info);
+    }
+
+    private final PackageManager packageManager;
+    private final int iconSizePx;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService loader = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, "SaayaAppRegistry");
+        }
+    });
+
+    // Packages with a load queued or running, and the listeners waiting on each
+    private final Map<String, List<Listener>> inFlight = new HashMap<>();
+
+    private final LruCache<String, AppInfo> cache = new LruCache<String, AppInfo>(CACHE_BYTES) {
+        @Override
+        protected int sizeOf(String packageName, AppInfo info) {
+            int iconBytes = info.icon != null ? info.icon.getAllocationByteCount() : 0;
+            return iconBytes + info.label.length() * 2 + ENTRY_OVERHEAD_BYTES;
+        }
+    };
+
+    private AppRegistry(Context context) {
+        this.packageManager = context.getPackageManager();
+        float density = context.getResources().getDisplayMetrics().density;
+        this.iconSizePx = Math.max(1, Math.round(ICON_SIZE_DP * density));
+
+        // The LRU evicts on put, so the budget holds without enforce()
+        CacheManager.getInstance(context).register("appIcons", CACHE_BYTES, new CacheManager.Cache() {
+            @Override
+            public long sizeBytes() {
+                return cache.size();
+            }
+
+            @Override
+            public void trimTo(long maxBytes) {
+                // Evicted apps fall back to their built-in names until reloaded
+                cache.trimToSize((int) Math.min(maxBytes, CACHE_BYTES));
+            }
+        });
+    }
+
+    public static synchronized AppRegistry getInstance(Context context) {
+        if (instance == null) {
+            instance = new AppRegistry(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Label to show right now; starts a background load on a miss
+     */
+    public String getLabel(String packageName) {
+        AppInfo info = peek(packageName);
+        if (info != null) {
+            return info.label;
+        }
+        load(packageName, null);
+        return AppLabels.knownLabel(packageName);
+    }
+
+    /**
+     * Label to show right now without starting a load, for callers that call
+     * load() themselves
+     */
+    public String peekLabel(String packageName) {
+        AppInfo info = peek(packageName);
+        return info != null ? info.label : AppLabels.knownLabel(packageName);
+    }
+
+    /**
+     * Cached entry, or null if the package has not been resolved yet
+     */
+    public AppInfo peek(String packageName) {
+        return packageName != null ? cache.get(packageName) : null;
+    }
+
+    /**
+     * Resolve in the background; the listener (optional) runs on the main thread.
+     * A load already in flight for the package picks the listener up instead
+     * of queueing another task.
+     */
+    public void load(final String packageName, final Listener listener) {
+        if (packageName == null) {
+            return;
+        }
+        final AppInfo cached = cache.get(packageName);
+        if (cached != null) {
+            if (listener != null) {
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onAppLoaded(packageName, cached);
+                    }
+                });
+            }
+            return;
+        }
+        synchronized (inFlight) {
+            List<Listener> waiting = inFlight.get(packageName);
+            if (waiting != null) {
+                if (listener != null) {
+                    waiting.add(listener);
+                }
+                return;
+            }
+            waiting = new ArrayList<>();
+            if (listener != null) {
+                waiting.add(listener);
+            }
+            inFlight.put(packageName, waiting);
+        }
+
+        loader.execute(new Runnable() {
+            @Override
+            public void run() {
+                AppInfo info = cache.get(packageName);
+                if (info == null) {
+                    info = resolve(packageName);
+                    cache.put(packageName, info);
+                }
+
+                // Cached before removal, so a later load() is answered from the cache
+                final List<Listener> listeners;
+                synchronized (inFlight) {
+                    listeners = inFlight.remove(packageName);
+                }
+                if (!listeners.isEmpty()) {
+                    final AppInfo loaded = info;
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            for (Listener waiting : listeners) {
+                                waiting.onAppLoaded(packageName, loaded);
+                            }
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    private AppInfo resolve(String packageName) {
+        try {
+            ApplicationInfo app = packageManager.getApplicationInfo(packageName, 0);
+            CharSequence label = packageManager.getApplicationLabel(app);
+            return new AppInfo(label != null ? label.toString() : AppLabels.knownLabel(packageName),
+                    renderIcon(packageManager.getApplicationIcon(app)));
+        } catch (PackageManager.NameNotFoundException e) {
+            return new AppInfo(AppLabels.knownLabel(packageName), null);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Error resolving " + packageName + ": " + e.getMessage());
+            return new AppInfo(AppLabels.knownLabel(packageName), null);
+        }
+    }
+
+    /**
+     * Draw the icon straight into a list-sized bitmap so the full-size one is never kept
+     */
+    private Bitmap renderIcon(Drawable drawable) {
+        if (drawable == null) {
+            return null;
+        }
+        Bitmap bitmap = Bitmap.createBitmap(iconSizePx, iconSizePx, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        drawable.setBounds(0, 0, iconSizePx, iconSizePx);
+        drawable.draw(canvas);
+        return bitmap;
+    }
+}
@@ -0,0 +1,150 @@
+package com.saaya.automator.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * BucketIndex - In-memory range index over the daily_buckets table
+ * Keeps Fenwick trees of message and word counts per day, overall and per
+ * package, so any day range is answered in O(packages * log days). Loaded once
+ * from the bucket table and then bumped by the publish thread once each write
+ * commits; the load records the newest row it covers, so no row counts twice.
+ * Range reads share a read lock, so dashboards never queue behind each other.
+ */
+final class BucketIndex {
+
+    private final DayFenwick totalMessages = new DayFenwick();
+    private final DayFenwick totalWords = new DayFenwick();
+    private final Map<String, DayFenwick[]> byPackage = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AppLabels appLabels;
+    // Newest shadow_logs id already in the loaded buckets
+    private long loadedThroughId;
+
+    BucketIndex(AppLabels appLabels) {
+        this.appLabels = appLabels;
+    }
+
+    /**
+     * Build from the bucket table: O(buckets), never touches shadow_logs.
+     * maxIdSql selects the highest committed log id; it rides along as one
+     * extra row of the same statement, so it describes the same snapshot.
+     */
+    void load(SQLiteDatabase db, String table, String dayColumn, String packageColumn,
+              String messageColumn, String wordColumn, String maxIdSql) {
+        clear();
+        Cursor cursor = db.rawQuery(
+            "SELECT " + dayColumn + ", " + packageColumn + ", SUM(" + messageColumn + "), SUM(" + wordColumn + ")"
+            + " FROM " + table + " GROUP BY " + dayColumn + ", " + packageColumn
+            + " UNION ALL SELECT NULL, NULL, (" + maxIdSql + "), NULL", null);
+        long throughId = 0;
+        while (cursor.moveToNext()) {
+            if (cursor.isNull(0)) {
+                throughId = cursor.getLong(2);
+            } else {
+                add(cursor.getInt(0), cursor.getString(1), cursor.getLong(2), cursor.getLong(3));
+            }
+        }
+        cursor.close();
+        loadedThroughId = throughId;
+    }
+
+    /**
+     * Count one committed row, unless the load already covered it
+     */
+    void addRow(long rowId, int day, String packageName, long words) {
+        if (rowId <= loadedThroughId) {
+            return;
+        }
+        add(day, packageName, 1, words);
+    }
+
+    private void add(int day, String packageName, long messages, long words) {
+        lock.writeLock().lock();
+        try {
+            totalMessages.add(day, messages);
+            totalWords.add(day, words);
+
+            DayFenwick[] trees = byPackage.get(packageName);
+            if (trees == null) {
+                trees = new DayFenwick[]{new DayFenwick(), new DayFenwick()};
+                byPackage.put(packageName, trees);
+            }
+            trees[0].add(day, messages);
+            trees[1].add(day, words);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    long messages(int fromDay, int toDay) {
+        lock.readLock().lock();
+        try {
+            return totalMessages.sum(fromDay, toDay);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    long words(int fromDay, int toDay) {
+        lock.readLock().lock();
+        try {
+            return totalWords.sum(fromDay, toDay);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Per-package totals for the range, packages with no messages left out
+     */
+    List<SaayaMemoryDB.RangeStat> byPackage(int fromDay, int toDay) {
+        List<SaayaMemoryDB.RangeStat> stats = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (Map.Entry<String, DayFenwick[]> entry : byPackage.entrySet()) {
+                long messages = entry.getValue()[0].sum(fromDay, toDay);
+                if (messages > 0) {
+                    long words = entry.getValue()[1].sum(fromDay, toDay);
+                    stats.add(new SaayaMemoryDB.RangeStat(entry.getKey(),
+                            appLabels.getLabel(entry.getKey()), messages, words));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return stats;
+    }
+
+    long approximateBytes() {
+        lock.readLock().lock();
+        try {
+            long bytes = totalMessages.approximateBytes() + totalWords.approximateBytes();
+            for (DayFenwick[] trees : byPackage.values()) {
+                bytes += trees[0].approximateBytes() + trees[1].approximateBytes();
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    void clear() {
+        lock.writeLock().lock();
+        try {
+            totalMessages.clear();
+            totalWords.clear();
+            byPackage.clear();
+            loadedThroughId = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
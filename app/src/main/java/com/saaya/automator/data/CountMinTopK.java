@@ -0,0 +1,231 @@
+package com.saaya.automator.data;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * CountMinTopK - Heavy hitters in fixed memory
+ * A Count-Min sketch of depth x width counters estimates how often any key was
+ * added, and a min-heap of the K keys with the highest estimates tracks the
+ * leaders. Estimates never undercount; with total additions N they overcount
+ * by at most (e / width) * N with probability 1 - e^-depth, and the
+ * conservative update used here usually does much better than that bound.
+ */
+final class CountMinTopK {
+
+    private static final byte SPARSE = 0;
+    private static final byte DENSE = 1;
+
+    private final int width;
+    private final int depth;
+    private final int[] counters;
+    private long total;
+
+    // Min-heap on estimate; the root is the weakest leader
+    private final String[] heapKeys;
+    private final long[] heapCounts;
+    private int heapSize;
+
+    /**
+     * @param width counters per row, a power of two
+     */
+    CountMinTopK(int width, int depth, int k) {
+        this.width = width;
+        this.depth = depth;
+        this.counters = new int[width * depth];
+        this.heapKeys = new String[k];
+        this.heapCounts = new long[k];
+    }
+
+    /**
+     * Count one occurrence of key, whose 64-bit hash the caller supplies
+     */
+    void add(String key, long hash) {
+        total++;
+
+        // Conservative update: only raise the counters that hold the minimum
+        long estimate = estimate(hash) + 1;
+        for (int row = 0; row < depth; row++) {
+            int slot = slot(hash, row);
+            if (counters[slot] < estimate) {
+                counters[slot] = (int) estimate;
+            }
+        }
+        offer(key, estimate);
+    }
+
+    long estimate(long hash) {
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            min = Math.min(min, counters[slot(hash, row)]);
+        }
+        return min;
+    }
+
+    long total() {
+        return total;
+    }
+
+    /**
+     * Leading keys by estimate, highest first, at most K
+     */
+    List<SaayaMemoryDB.TermCount> top(int limit) {
+        Integer[] order = new Integer[heapSize];
+        for (int i = 0; i < heapSize; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(heapCounts[b], heapCounts[a]);
+            }
+        });
+
+        int n = Math.min(limit, heapSize);
+        List<SaayaMemoryDB.TermCount> result = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            result.add(new SaayaMemoryDB.TermCount(heapKeys[order[i]], (int) heapCounts[order[i]]));
+        }
+        return result;
+    }
+
+    void clear() {
+        Arrays.fill(counters, 0);
+        Arrays.fill(heapKeys, null);
+        total = 0;
+        heapSize = 0;
+    }
+
+    /**
+     * Compact form: total, counters as (index, value) pairs while mostly zero,
+     * then the heap entries
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeLong(total);
+
+        int set = 0;
+        for (int counter : counters) {
+            if (counter != 0) {
+                set++;
+            }
+        }
+        if (set * 2 < counters.length) {
+            out.writeByte(SPARSE);
+            out.writeInt(set);
+            for (int i = 0; i < counters.length; i++) {
+                if (counters[i] != 0) {
+                    out.writeInt(i);
+                    out.writeInt(counters[i]);
+                }
+            }
+        } else {
+            out.writeByte(DENSE);
+            for (int counter : counters) {
+                out.writeInt(counter);
+            }
+        }
+
+        out.writeInt(heapSize);
+        for (int i = 0; i < heapSize; i++) {
+            out.writeUTF(heapKeys[i]);
+            out.writeLong(heapCounts[i]);
+        }
+    }
+
+    void readFrom(DataInputStream in) throws IOException {
+        clear();
+        total = in.readLong();
+
+        if (in.readByte() == DENSE) {
+            for (int i = 0; i < counters.length; i++) {
+                counters[i] = in.readInt();
+            }
+        } else {
+            for (int i = in.readInt(); i > 0; i--) {
+                int index = in.readInt();
+                counters[index] = in.readInt();
+            }
+        }
+
+        int entries = in.readInt();
+        for (int i = 0; i < entries; i++) {
+            offer(in.readUTF(), in.readLong());
+        }
+    }
+
+    /**
+     * Row-th hash from the two halves of one 64-bit hash (Kirsch-Mitzenmacher)
+     */
+    private int slot(long hash, int row) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        return row * width + ((h1 + row * h2) & (width - 1));
+    }
+
+    /**
+     * Estimates only grow, so a leader's entry only ever sinks away from the root
+     */
+    private void offer(String key, long estimate) {
+        for (int i = 0; i < heapSize; i++) {
+            if (heapKeys[i].equals(key)) {
+                heapCounts[i] = estimate;
+                siftDown(i);
+                return;
+            }
+        }
+
+        if (heapSize < heapKeys.length) {
+            heapKeys[heapSize] = key;
+            heapCounts[heapSize] = estimate;
+            siftUp(heapSize++);
+        } else if (estimate > heapCounts[0]) {
+            heapKeys[0] = key;
+            heapCounts[0] = estimate;
+            siftDown(0);
+        }
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (heapCounts[parent] <= heapCounts[i]) {
+                return;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int smallest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < heapSize && heapCounts[left] < heapCounts[smallest]) {
+                smallest = left;
+            }
+            if (right < heapSize && heapCounts[right] < heapCounts[smallest]) {
+                smallest = right;
+            }
+            if (smallest == i) {
+                return;
+            }
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        String key = heapKeys[a];
+        heapKeys[a] = heapKeys[b];
+        heapKeys[b] = key;
+        long count = heapCounts[a];
+        heapCounts[a] = heapCounts[b];
+        heapCounts[b] = count;
+    }
+}
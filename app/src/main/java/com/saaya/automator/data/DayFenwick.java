@@ -0,0 +1,108 @@
+package com.saaya.automator.data;
+
+import java.util.Arrays;
+
+/**
+ * DayFenwick - Fenwick (binary indexed) tree over local days
+ * Point add and inclusive range sum in O(log days). The axis starts at the
+ * first day added and grows in either direction by rebuilding from the raw
+ * per-day values it keeps alongside the tree.
+ */
+final class DayFenwick {
+
+    private static final int INITIAL_DAYS = 64;
+
+    private int baseDay;
+    private long[] raw;
+    private long[] tree;
+    private boolean empty = true;
+
+    DayFenwick() {
+        raw = new long[INITIAL_DAYS];
+        tree = new long[INITIAL_DAYS + 1];
+    }
+
+    void add(int day, long delta) {
+        if (empty) {
+            baseDay = day;
+            empty = false;
+        }
+        ensureCovers(day);
+
+        int index = day - baseDay;
+        raw[index] += delta;
+        for (int i = index + 1; i < tree.length; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+
+    /**
+     * Sum of all values from fromDay to toDay, both inclusive
+     */
+    long sum(int fromDay, int toDay) {
+        if (empty || toDay < fromDay) {
+            return 0;
+        }
+        long from = Math.max((long) fromDay, baseDay) - baseDay;
+        long to = Math.min((long) toDay, (long) baseDay + raw.length - 1) - baseDay;
+        if (to < from) {
+            return 0;
+        }
+        return prefix((int) to + 1) - prefix((int) from);
+    }
+
+    long approximateBytes() {
+        return 8L * (raw.length + tree.length);
+    }
+
+    void clear() {
+        Arrays.fill(raw, 0);
+        Arrays.fill(tree, 0);
+        empty = true;
+    }
+
+    /** Sum of the first n days of the axis */
+    private long prefix(int n) {
+        long total = 0;
+        for (int i = n; i > 0; i -= i & -i) {
+            total += tree[i];
+        }
+        return total;
+    }
+
+    private void ensureCovers(int day) {
+        int lastDay = baseDay + raw.length - 1;
+        if (day >= baseDay && day <= lastDay) {
+            return;
+        }
+
+        int newBase = Math.min(baseDay, day);
+        int newLast = Math.max(lastDay, day);
+        int length = raw.length;
+        while (length < newLast - newBase + 1) {
+            length <<= 1;
+        }
+        // Leave head room on the side that grew
+        if (day < baseDay) {
+            newBase = newLast - length + 1;
+        }
+
+        long[] grown = new long[length];
+        System.arraycopy(raw, 0, grown, baseDay - newBase, raw.length);
+        raw = grown;
+        baseDay = newBase;
+        rebuild();
+    }
+
+    /** O(n) bottom-up construction */
+    private void rebuild() {
+        tree = new long[raw.length + 1];
+        for (int i = 1; i < tree.length; i++) {
+            tree[i] += raw[i - 1];
+            int parent = i + (i & -i);
+            if (parent < tree.length) {
+                tree[parent] += tree[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,790 @@
+package com.saaya.automator.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LogPartitions - Router between shadow_logs and its physical layout
+ * By default shadow_logs is one table and every call maps onto it directly.
+ * With BuildConfig.PARTITIONED_LOGS each calendar month gets its own table
+ * (shadow_logs_YYYYMM) and shadow_logs becomes a UNION ALL view over
+ * them, so full scans keep working unchanged. The router sends each insert to
+ * its month, answers id pages from the few partitions that can hold them,
+ * limits time-bounded reads to the months they overlap, and expires whole
+ * months with DROP TABLE instead of a DELETE through the WAL. Months are UTC,
+ * so a partition's bounds do not move when the device changes time zone.
+ *
+ * A month's table is created by the insert that first needs it, inside that
+ * insert's write transaction, and readers are only routed to it once the
+ * transaction has committed; months dropped by a clear or expiry stop being
+ * routed to once that transaction is sure to commit (see Change).
+ *
+ * Ids stay global and increasing across partitions, handed out by the router
+ * inside the caller's write transaction. The highest id ever handed out is
+ * kept in shadow_logs_sequence, updated by every insert (the single table has
+ * sqlite_sequence for this), so ids are never reused even after every month
+ * has expired. Flipping the flag converts the layout on the next
+ * open; schema upgrades always run on the single-table layout.
+ */
+final class LogPartitions {
+
+    private static final String TAG = "LogPartitions";
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    // Session index of the single-table layout, as created by SaayaMemoryDB
+    static final String SESSION_INDEX = "idx_logs_session";
+
+    /**
+     * One month of rows; fields other than the id range never change
+     */
+    private static final class Partition {
+        final int month;        // yyyymm
+        final String table;
+        final long start;       // UTC midnight on the 1st, inclusive
+        final long end;         // start of the next month, exclusive
+        // Ids seen so far, used to skip partitions while paging; empty while minId > maxId.
+        // Writers widen them concurrently, so only by compare-and-set.
+        final AtomicLong minId = new AtomicLong(Long.MAX_VALUE);
+        final AtomicLong maxId = new AtomicLong();
+
+        Partition(String baseTable, int month) {
+            this.month = month;
+            this.table = baseTable + "_" + month;
+            this.start = monthStart(month);
+            this.end = monthStart(nextMonth(month));
+        }
+
+        boolean contains(long timestamp) {
+            return timestamp >= start && timestamp < end;
+        }
+    }
+
+    private final boolean partitioned;
+    private final String table;
+    private final String[] columns;
+    private final String columnList;
+    private final String columnsSql;
+    private final String idColumn;
+    private final String timestampColumn;
+    private final String sessionColumn;
+    private final String sequenceTable;
+
+    /**
+     * Layout changes made by one write transaction, handed to readers once it
+     * commits; see endingTransaction
+     */
+    final class Change {
+        // Created by this transaction
+        private final List<Partition> added = new ArrayList<>();
+        // Partitions left after a clear or expiry, null if none dropped
+        private Partition[] remaining;
+        // What remaining replaced, restored if the commit fails
+        private Partition[] replaced;
+        private long generation;
+
+        /**
+         * Publish new partitions if the transaction committed, else undo
+         * dropped ones published ahead of the commit
+         */
+        void finish(boolean committed) {
+            if (!committed) {
+                if (replaced != null) {
+                    synchronized (LogPartitions.this) {
+                        if (partitions == remaining) {
+                            partitions = replaced;
+                        }
+                    }
+                    Log.w(TAG, "Partition drop rolled back");
+                }
+                return;
+            }
+            if (added.isEmpty()) {
+                return;
+            }
+            synchronized (LogPartitions.this) {
+                if (generation != dropGeneration) {
+                    // A later clear or expiry listed the survivors from the schema itself
+                    return;
+                }
+                List<Partition> next = new ArrayList<>(Arrays.asList(partitions));
+                for (Partition partition : added) {
+                    if (listed(next, partition.table) == null) {
+                        next.add(partition);
+                        Log.d(TAG, "Created partition " + partition.table);
+                    }
+                }
+                Partition[] sorted = next.toArray(new Partition[0]);
+                sortByMonth(sorted);
+                partitions = sorted;
+            }
+        }
+    }
+
+    // Ascending by month; replaced on change, never modified once published
+    private volatile Partition[] partitions = new Partition[0];
+    private final AtomicLong lastId = new AtomicLong();
+    // Changes of the open write transaction. Only the thread holding that
+    // transaction touches it, and the primary connection passes between
+    // threads under a lock, so no further guard is needed.
+    private Change pending;
+    private final Change unchanged = new Change();
+    // Bumped whenever dropped partitions are published; guarded by this
+    private long dropGeneration;
+
+    /**
+     * columns lists every column with idColumn first; columnsSql defines all
+     * but the id, exactly as in the single-table CREATE TABLE
+     */
+    LogPartitions(boolean partitioned, String table, String[] columns, String columnsSql,
+                  String timestampColumn, String sessionColumn) {
+        this.partitioned = partitioned;
+        this.table = table;
+        this.columns = columns;
+        this.columnList = join(columns);
+        this.columnsSql = columnsSql;
+        this.idColumn = columns[0];
+        this.timestampColumn = timestampColumn;
+        this.sessionColumn = sessionColumn;
+        this.sequenceTable = table + "_sequence";
+    }
+
+    /**
+     * Bring the layout in line with the flag and load the partition list;
+     * called from onOpen, before anyone else can use the database
+     */
+    void open(SQLiteDatabase db) {
+        boolean view = isView(db);
+        if (partitioned && !view) {
+            split(db);
+        } else if (!partitioned && view) {
+            merge(db);
+        }
+
+        if (partitioned) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS " + sequenceTable + " (seq INTEGER NOT NULL)");
+            // insert() updates the one row in place
+            db.execSQL("INSERT INTO " + sequenceTable + " SELECT 0"
+                    + " WHERE NOT EXISTS (SELECT 1 FROM " + sequenceTable + ")");
+            load(db);
+        }
+    }
+
+    /**
+     * Upgrades alter shadow_logs as a table, so fold partitions back first;
+     * open() splits them again afterwards
+     */
+    void prepareForUpgrade(SQLiteDatabase db) {
+        if (isView(db)) {
+            merge(db);
+        }
+    }
+
+    /**
+     * Insert one row; the caller owns the transaction and must end it through
+     * endingTransaction. A missing month is created in that same transaction,
+     * so a clear or expiry committed just before cannot leave the row without
+     * a table.
+     */
+    long insert(SQLiteDatabase db, ContentValues values, long timestamp) {
+        if (!partitioned) {
+            return db.insert(table, null, values);
+        }
+
+        Partition partition = find(timestamp);
+        if (partition == null) {
+            partition = created(timestamp);
+        }
+        if (partition == null) {
+            partition = create(db, timestamp);
+        }
+        long id = lastId.incrementAndGet();
+        values.put(idColumn, id);
+        long result = db.insert(partition.table, null, values);
+        if (result != -1) {
+            // Same transaction as the row, so maxIdSql() always matches the table
+            db.execSQL("UPDATE " + sequenceTable + " SET seq = ?", new Object[]{id});
+        }
+        return result;
+    }
+
+    /**
+     * Take the open write transaction's layout changes; call while still
+     * holding the transaction, right before endTransaction, and pass whether
+     * it committed to finish() afterwards. Dropped partitions are published
+     * here already, once the transaction is marked successful: until it
+     * commits readers merely skip months they could still read, whereas
+     * publishing afterwards would leave a window in which they are routed to
+     * tables that are gone. Writers cannot interleave, since the transaction
+     * is still held.
+     */
+    Change endingTransaction(boolean successful) {
+        Change change = pending;
+        pending = null;
+        if (change == null) {
+            return unchanged;
+        }
+        synchronized (this) {
+            if (successful && change.remaining != null) {
+                change.replaced = partitions;
+                partitions = change.remaining;
+                dropGeneration++;
+            }
+            change.generation = dropGeneration;
+        }
+        return change;
+    }
+
+    /**
+     * Widen the id range of a committed row's partition. Called once the
+     * insert's transaction has committed, so paging never prunes by a range
+     * that a rollback would have to shrink again.
+     */
+    void committed(long timestamp, long id) {
+        if (!partitioned) {
+            return;
+        }
+        Partition partition = find(timestamp);
+        if (partition == null) {
+            // Expired or cleared since
+            return;
+        }
+        long min;
+        while (id < (min = partition.minId.get()) && !partition.minId.compareAndSet(min, id)) {
+            // Lost a race with another writer; retry against its value
+        }
+        long max;
+        while (id > (max = partition.maxId.get()) && !partition.maxId.compareAndSet(max, id)) {
+            // Same for the upper end
+        }
+    }
+
+    /**
+     * Highest id handed out so far, including rows since deleted
+     */
+    long maxId(SQLiteDatabase db) {
+        return partitioned ? lastId.get() : tableMaxId(db);
+    }
+
+    /**
+     * Scalar subquery for the highest committed id, kept in the same
+     * transaction as each insert, so it can ride along in another statement
+     * and describe that statement's snapshot; NULL before the first insert
+     */
+    String maxIdSql() {
+        return partitioned
+                ? "SELECT MAX(seq) FROM " + sequenceTable
+                : "SELECT seq FROM sqlite_sequence WHERE name = '" + table + "'";
+    }
+
+    /**
+     * Rows with id below beforeId, newest first. Partitions are visited from
+     * the highest id range down and the walk stops once no remaining one can
+     * beat the page, so usually only the newest month is read.
+     */
+    Cursor page(SQLiteDatabase db, String[] projection, long beforeId, int limit) {
+        String[] args = {String.valueOf(beforeId)};
+        if (!partitioned) {
+            return db.query(table, projection, idColumn + " < ?", args,
+                    null, null, idColumn + " DESC", String.valueOf(limit));
+        }
+
+        List<Partition> candidates = new ArrayList<>();
+        for (Partition partition : partitions) {
+            long min = partition.minId.get();
+            if (min < beforeId && min <= partition.maxId.get()) {
+                candidates.add(partition);
+            }
+        }
+        Collections.sort(candidates, new Comparator<Partition>() {
+            @Override
+            public int compare(Partition a, Partition b) {
+                return Long.compare(b.maxId.get(), a.maxId.get());
+            }
+        });
+
+        // The id rides along as a hidden last column for merging
+        final int idIndex = projection.length;
+        String[] queryColumns = Arrays.copyOf(projection, idIndex + 1);
+        queryColumns[idIndex] = idColumn;
+
+        List<Object[]> rows = new ArrayList<>();
+        for (Partition partition : candidates) {
+            if (rows.size() >= limit && partition.maxId.get() < (Long) rows.get(limit - 1)[idIndex]) {
+                break;
+            }
+            Cursor cursor = db.query(partition.table, queryColumns, idColumn + " < ?", args,
+                    null, null, idColumn + " DESC", String.valueOf(limit));
+            while (cursor.moveToNext()) {
+                Object[] row = new Object[idIndex + 1];
+                for (int i = 0; i < idIndex; i++) {
+                    row[i] = value(cursor, i);
+                }
+                row[idIndex] = cursor.getLong(idIndex);
+                rows.add(row);
+            }
+            cursor.close();
+
+            Collections.sort(rows, new Comparator<Object[]>() {
+                @Override
+                public int compare(Object[] a, Object[] b) {
+                    return Long.compare((Long) b[idIndex], (Long) a[idIndex]);
+                }
+            });
+            if (rows.size() > limit) {
+                rows.subList(limit, rows.size()).clear();
+            }
+        }
+
+        MatrixCursor result = new MatrixCursor(projection, rows.size());
+        for (Object[] row : rows) {
+            result.addRow(Arrays.copyOf(row, idIndex));
+        }
+        return result;
+    }
+
+    /**
+     * Rows matching selection whose timestamps lie in [fromTime, toTime];
+     * only the months overlapping that span are read
+     */
+    Cursor queryRange(SQLiteDatabase db, String[] projection, String selection,
+                      String[] selectionArgs, long fromTime, long toTime, String orderBy) {
+        if (!partitioned) {
+            return db.query(table, projection, selection, selectionArgs, null, null, orderBy);
+        }
+
+        List<Partition> hits = new ArrayList<>();
+        for (Partition partition : partitions) {
+            if (partition.start <= toTime && partition.end > fromTime) {
+                hits.add(partition);
+            }
+        }
+        if (hits.isEmpty()) {
+            return new MatrixCursor(projection, 0);
+        }
+        if (hits.size() == 1) {
+            return db.query(hits.get(0).table, projection, selection, selectionArgs,
+                    null, null, orderBy);
+        }
+
+        String select = "SELECT " + join(projection) + " FROM ";
+        StringBuilder sql = new StringBuilder();
+        List<String> args = new ArrayList<>();
+        for (Partition partition : hits) {
+            if (sql.length() > 0) {
+                sql.append(" UNION ALL ");
+            }
+            sql.append(select).append(partition.table).append(" WHERE ").append(selection);
+            args.addAll(Arrays.asList(selectionArgs));
+        }
+        sql.append(" ORDER BY ").append(orderBy);
+        return db.rawQuery(sql.toString(), args.toArray(new String[0]));
+    }
+
+    /**
+     * Remove every row; the caller owns the transaction and must end it
+     * through endingTransaction
+     */
+    void clear(SQLiteDatabase db) {
+        if (!partitioned) {
+            db.delete(table, null, null);
+            return;
+        }
+
+        storeLastId(db, lastId.get());
+        Partition[] none = new Partition[0];
+        staged().remaining = none;
+        createView(db, none);
+        for (String name : partitionTables(db)) {
+            db.execSQL("DROP TABLE IF EXISTS " + name);
+        }
+    }
+
+    /**
+     * Remove rows older than cutoff, which must be the start of a month (see
+     * monthStartOf). Partitions go with one DROP TABLE each; the single table
+     * needs a DELETE over every expired row. The caller owns the transaction
+     * and must end it through endingTransaction.
+     */
+    void expireBefore(SQLiteDatabase db, long cutoff) {
+        if (!partitioned) {
+            int deleted = db.delete(table, timestampColumn + " < ?",
+                    new String[]{String.valueOf(cutoff)});
+            Log.d(TAG, "Expired " + deleted + " rows");
+            return;
+        }
+
+        // The schema, not the published list: months whose creating
+        // transaction committed but has not published them yet count too
+        List<Partition> keep = new ArrayList<>();
+        List<Partition> expired = new ArrayList<>();
+        for (Partition partition : fromSchema(db)) {
+            if (partition.end <= cutoff) {
+                expired.add(partition);
+            } else {
+                keep.add(partition);
+            }
+        }
+        if (expired.isEmpty()) {
+            return;
+        }
+
+        storeLastId(db, lastId.get());
+        Partition[] next = keep.toArray(new Partition[0]);
+        staged().remaining = next;
+        createView(db, next);
+        for (Partition partition : expired) {
+            db.execSQL("DROP TABLE IF EXISTS " + partition.table);
+        }
+        Log.d(TAG, "Expired " + expired.size() + " monthly partitions");
+    }
+
+    /**
+     * First instant of the UTC calendar month containing timestamp
+     */
+    static long monthStartOf(long timestamp) {
+        return monthStart(monthOf(timestamp));
+    }
+
+    /**
+     * First instant of the UTC month the given number of months before the
+     * one containing timestamp
+     */
+    static long monthsBefore(long timestamp, int months) {
+        Calendar calendar = Calendar.getInstance(UTC);
+        calendar.setTimeInMillis(monthStartOf(timestamp));
+        calendar.add(Calendar.MONTH, -months);
+        return calendar.getTimeInMillis();
+    }
+
+    private static int monthOf(long timestamp) {
+        Calendar calendar = Calendar.getInstance(UTC);
+        calendar.setTimeInMillis(timestamp);
+        return calendar.get(Calendar.YEAR) * 100 + calendar.get(Calendar.MONTH) + 1;
+    }
+
+    private static long monthStart(int month) {
+        Calendar calendar = Calendar.getInstance(UTC);
+        calendar.clear();
+        calendar.set(month / 100, month % 100 - 1, 1);
+        return calendar.getTimeInMillis();
+    }
+
+    private static int nextMonth(int month) {
+        return month % 100 == 12 ? (month / 100 + 1) * 100 + 1 : month + 1;
+    }
+
+    private Partition find(long timestamp) {
+        Partition[] current = partitions;
+        // New rows almost always land in the newest month
+        for (int i = current.length - 1; i >= 0; i--) {
+            if (current[i].contains(timestamp)) {
+                return current[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Partition for timestamp created earlier in the open transaction and not
+     * yet published; only for the thread holding that transaction
+     */
+    private Partition created(long timestamp) {
+        if (pending != null) {
+            for (Partition partition : pending.added) {
+                if (partition.contains(timestamp)) {
+                    return partition;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Create the month partition for timestamp in the caller's transaction;
+     * the view is rebuilt from the schema, which already includes it
+     */
+    private Partition create(SQLiteDatabase db, long timestamp) {
+        Partition partition = new Partition(table, monthOf(timestamp));
+        createPartition(db, partition);
+        staged().added.add(partition);
+        createView(db, partitionTables(db));
+        return partition;
+    }
+
+    private Change staged() {
+        if (pending == null) {
+            pending = new Change();
+        }
+        return pending;
+    }
+
+    /**
+     * Partitions as the schema has them, ascending by month. Known ones are
+     * reused; others get their id range read, O(log n) on the rowid.
+     */
+    private Partition[] fromSchema(SQLiteDatabase db) {
+        List<Partition> known = new ArrayList<>(Arrays.asList(partitions));
+        if (pending != null) {
+            known.addAll(pending.added);
+        }
+        List<Partition> found = new ArrayList<>();
+        for (String name : partitionTables(db)) {
+            Partition partition = listed(known, name);
+            if (partition == null) {
+                partition = new Partition(table, Integer.parseInt(name.substring(table.length() + 1)));
+                Cursor cursor = db.rawQuery("SELECT MIN(" + idColumn + "), MAX(" + idColumn + ")"
+                        + " FROM " + partition.table, null);
+                if (cursor.moveToFirst() && !cursor.isNull(0)) {
+                    partition.minId.set(cursor.getLong(0));
+                    partition.maxId.set(cursor.getLong(1));
+                }
+                cursor.close();
+            }
+            found.add(partition);
+        }
+        Partition[] sorted = found.toArray(new Partition[0]);
+        sortByMonth(sorted);
+        return sorted;
+    }
+
+    private static Partition listed(List<Partition> parts, String name) {
+        for (Partition partition : parts) {
+            if (partition.table.equals(name)) {
+                return partition;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Read the partition list and id ranges
+     */
+    private void load(SQLiteDatabase db) {
+        long maxId = queryLong(db, "SELECT MAX(seq) FROM " + sequenceTable, null);
+        partitions = new Partition[0];
+        Partition[] next = fromSchema(db);
+        for (Partition partition : next) {
+            maxId = Math.max(maxId, partition.maxId.get());
+        }
+        partitions = next;
+        lastId.set(maxId);
+        Log.d(TAG, "Loaded " + next.length + " monthly partitions");
+    }
+
+    /**
+     * One-time move from the single table into monthly partitions
+     */
+    private void split(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            // Temporary; dropped together with the table
+            db.execSQL("CREATE INDEX IF NOT EXISTS idx_logs_split ON " + table
+                    + " (" + timestampColumn + ")");
+
+            db.execSQL("CREATE TABLE IF NOT EXISTS " + sequenceTable + " (seq INTEGER NOT NULL)");
+            storeLastId(db, tableMaxId(db));
+
+            List<Partition> created = new ArrayList<>();
+            Cursor range = db.rawQuery("SELECT MIN(" + timestampColumn + "), MAX("
+                    + timestampColumn + ") FROM " + table, null);
+            if (range.moveToFirst() && !range.isNull(0)) {
+                int last = monthOf(range.getLong(1));
+                for (int month = monthOf(range.getLong(0)); month <= last; month = nextMonth(month)) {
+                    Partition partition = new Partition(table, month);
+                    createPartition(db, partition);
+                    db.execSQL("INSERT INTO " + partition.table + " SELECT " + columnList
+                            + " FROM " + table + " WHERE " + timestampColumn + " >= ? AND "
+                            + timestampColumn + " < ?", new Object[]{partition.start, partition.end});
+                    if (isEmpty(db, partition.table)) {
+                        db.execSQL("DROP TABLE " + partition.table);
+                    } else {
+                        created.add(partition);
+                    }
+                }
+            }
+            range.close();
+
+            db.execSQL("DROP TABLE " + table);
+            createView(db, created.toArray(new Partition[0]));
+            db.setTransactionSuccessful();
+            Log.i(TAG, "Split " + table + " into " + created.size() + " monthly partitions");
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * One-time move from monthly partitions back into the single table
+     */
+    private void merge(SQLiteDatabase db) {
+        String merged = table + "_merged";
+        db.beginTransaction();
+        try {
+            db.execSQL("CREATE TABLE IF NOT EXISTS " + sequenceTable + " (seq INTEGER NOT NULL)");
+            long highest = Math.max(
+                    queryLong(db, "SELECT MAX(seq) FROM " + sequenceTable, null),
+                    queryLong(db, "SELECT MAX(" + idColumn + ") FROM " + table, null));
+            db.execSQL("DROP TABLE IF EXISTS " + merged);
+            db.execSQL("CREATE TABLE " + merged + " (" + idColumn
+                    + " INTEGER PRIMARY KEY AUTOINCREMENT, " + columnsSql + ")");
+            db.execSQL("INSERT INTO " + merged + " SELECT " + columnList + " FROM " + table
+                    + " ORDER BY " + idColumn);
+
+            db.execSQL("DROP VIEW " + table);
+            for (String name : partitionTables(db)) {
+                db.execSQL("DROP TABLE " + name);
+            }
+            db.execSQL("ALTER TABLE " + merged + " RENAME TO " + table);
+            db.execSQL("CREATE INDEX " + SESSION_INDEX + " ON " + table + " (" + sessionColumn + ")");
+            // AUTOINCREMENT carries on from here instead of from the surviving rows
+            db.execSQL("DELETE FROM sqlite_sequence WHERE name = ?", new Object[]{table});
+            db.execSQL("INSERT INTO sqlite_sequence (name, seq) VALUES (?, ?)",
+                    new Object[]{table, highest});
+            db.execSQL("DROP TABLE IF EXISTS " + sequenceTable);
+            db.setTransactionSuccessful();
+            Log.i(TAG, "Merged monthly partitions back into " + table);
+        } finally {
+            db.endTransaction();
+        }
+        partitions = new Partition[0];
+    }
+
+    /**
+     * Same columns as the single table; the id comes from the router, so no AUTOINCREMENT
+     */
+    private void createPartition(SQLiteDatabase db, Partition partition) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + partition.table + " ("
+                + idColumn + " INTEGER PRIMARY KEY, " + columnsSql + ")");
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_" + partition.table + "_session ON "
+                + partition.table + " (" + sessionColumn + ")");
+    }
+
+    /**
+     * shadow_logs as the union of the given partitions, or an empty row set
+     */
+    private void createView(SQLiteDatabase db, Partition[] parts) {
+        List<String> names = new ArrayList<>(parts.length);
+        for (Partition partition : parts) {
+            names.add(partition.table);
+        }
+        createView(db, names);
+    }
+
+    private void createView(SQLiteDatabase db, List<String> tables) {
+        StringBuilder sql = new StringBuilder("CREATE VIEW " + table + " AS ");
+        if (tables.isEmpty()) {
+            sql.append("SELECT ");
+            for (int i = 0; i < columns.length; i++) {
+                sql.append(i > 0 ? ", " : "").append("NULL AS ").append(columns[i]);
+            }
+            sql.append(" WHERE 0");
+        } else {
+            for (int i = 0; i < tables.size(); i++) {
+                sql.append(i > 0 ? " UNION ALL " : "")
+                        .append("SELECT ").append(columnList).append(" FROM ").append(tables.get(i));
+            }
+        }
+        db.execSQL("DROP VIEW IF EXISTS " + table);
+        db.execSQL(sql.toString());
+    }
+
+    /**
+     * Highest id the single table has handed out, from its AUTOINCREMENT counter
+     */
+    private long tableMaxId(SQLiteDatabase db) {
+        return Math.max(queryLong(db, "SELECT seq FROM sqlite_sequence WHERE name = ?",
+                        new String[]{table}),
+                queryLong(db, "SELECT MAX(" + idColumn + ") FROM " + table, null));
+    }
+
+    /**
+     * Record the highest id handed out; the caller owns the transaction
+     */
+    private void storeLastId(SQLiteDatabase db, long id) {
+        db.execSQL("DELETE FROM " + sequenceTable);
+        db.execSQL("INSERT INTO " + sequenceTable + " (seq) VALUES (?)", new Object[]{id});
+    }
+
+    /**
+     * First column of a one-row query, 0 when there is no row or it is NULL
+     */
+    private static long queryLong(SQLiteDatabase db, String sql, String[] args) {
+        Cursor cursor = db.rawQuery(sql, args);
+        long value = cursor.moveToFirst() && !cursor.isNull(0) ? cursor.getLong(0) : 0;
+        cursor.close();
+        return value;
+    }
+
+    private List<String> partitionTables(SQLiteDatabase db) {
+        List<String> names = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'table' AND name GLOB ?",
+                new String[]{table + "_[0-9][0-9][0-9][0-9][0-9][0-9]"});
+        while (cursor.moveToNext()) {
+            names.add(cursor.getString(0));
+        }
+        cursor.close();
+        return names;
+    }
+
+    private boolean isView(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("SELECT type FROM sqlite_master WHERE name = ?",
+                new String[]{table});
+        boolean view = cursor.moveToFirst() && "view".equals(cursor.getString(0));
+        cursor.close();
+        return view;
+    }
+
+    private static boolean isEmpty(SQLiteDatabase db, String name) {
+        Cursor cursor = db.rawQuery("SELECT 1 FROM " + name + " LIMIT 1", null);
+        boolean empty = !cursor.moveToFirst();
+        cursor.close();
+        return empty;
+    }
+
+    private static void sortByMonth(Partition[] parts) {
+        Arrays.sort(parts, new Comparator<Partition>() {
+            @Override
+            public int compare(Partition a, Partition b) {
+                return Integer.compare(a.month, b.month);
+            }
+        });
+    }
+
+    private static Object value(Cursor cursor, int column) {
+        switch (cursor.getType(column)) {
+            case Cursor.FIELD_TYPE_INTEGER:
+                return cursor.getLong(column);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return cursor.getDouble(column);
+            case Cursor.FIELD_TYPE_STRING:
+                return cursor.getString(column);
+            case Cursor.FIELD_TYPE_BLOB:
+                return cursor.getBlob(column);
+            default:
+                return null;
+        }
+    }
+
+    private static String join(String[] names) {
+        StringBuilder joined = new StringBuilder();
+        for (String name : names) {
+            if (joined.length() > 0) {
+                joined.append(", ");
+            }
+            joined.append(name);
+        }
+        return joined.toString();
+    }
+}
@@ -0,0 +1,145 @@
+package com.saaya.automator.data;
+
+/**
+ * MessageTokenizer - Streaming word tokenizer for the write path
+ * Walks a message once and hashes every lower-cased word (and every pair of
+ * adjacent words) into a 64-bit token id without allocating.
+ */
+final class MessageTokenizer {
+
+    /** Longest term text kept for display; ids always cover the whole token */
+    static final int MAX_TERM_LENGTH = 64;
+
+    // FNV-1a 64-bit
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * Receives tokens as they are produced. Spans index into the original text,
+     * so a sink only builds a String when it actually needs the term.
+     */
+    interface TokenSink {
+        void onWord(long wordId, CharSequence text, int start, int end);
+
+        void onPhrase(long phraseId, CharSequence text, int start, int end);
+    }
+
+    private MessageTokenizer() {
+    }
+
+    /**
+     * Count words without reporting them
+     */
+    static int countWords(CharSequence text) {
+        return tokenize(text, null);
+    }
+
+    /**
+     * Tokenize text, reporting words and two-word phrases to the sink (may be null).
+     * Returns the number of words.
+     */
+    static int tokenize(CharSequence text, TokenSink sink) {
+        if (text == null) {
+            return 0;
+        }
+
+        int length = text.length();
+        int words = 0;
+        long previousId = 0;
+        int previousStart = -1;
+        int i = 0;
+
+        while (i < length) {
+            // Skip separators
+            while (i < length && !isWordChar(text.charAt(i))) {
+                i++;
+            }
+            if (i >= length) {
+                break;
+            }
+
+            int start = i;
+            long hash = FNV_OFFSET;
+            while (i < length) {
+                char c = text.charAt(i);
+                if (isWordChar(c) || isInnerApostrophe(text, i)) {
+                    hash = (hash ^ Character.toLowerCase(c)) * FNV_PRIME;
+                    i++;
+                } else {
+                    break;
+                }
+            }
+
+            words++;
+            if (sink != null) {
+                long wordId = nonZero(hash);
+                sink.onWord(wordId, text, start, i);
+                if (previousStart >= 0) {
+                    sink.onPhrase(nonZero(mix(previousId, wordId)), text, previousStart, i);
+                }
+                previousId = wordId;
+                previousStart = start;
+            }
+        }
+
+        return words;
+    }
+
+    /**
+     * Build the display form of a span: lower-cased words joined by single spaces
+     */
+    static String normalizedTerm(CharSequence text, int start, int end) {
+        StringBuilder term = new StringBuilder(Math.min(end - start, MAX_TERM_LENGTH));
+        boolean pendingSpace = false;
+
+        for (int i = start; i < end && term.length() < MAX_TERM_LENGTH; i++) {
+            char c = text.charAt(i);
+            if (isWordChar(c) || isInnerApostrophe(text, i)) {
+                if (pendingSpace) {
+                    term.append(' ');
+                    pendingSpace = false;
+                }
+                term.append(Character.toLowerCase(c));
+            } else if (term.length() > 0) {
+                pendingSpace = true;
+            }
+        }
+
+        return term.toString();
+    }
+
+    /**
+     * Letters, digits and combining marks (Urdu/Hindi vowel signs) belong to a word
+     */
+    private static boolean isWordChar(char c) {
+        if (Character.isLetterOrDigit(c)) {
+            return true;
+        }
+        int type = Character.getType(c);
+        return type == Character.NON_SPACING_MARK || type == Character.COMBINING_SPACING_MARK;
+    }
+
+    /**
+     * Apostrophes count only between word characters ("don't", not "'quoted'")
+     */
+    private static boolean isInnerApostrophe(CharSequence text, int i) {
+        char c = text.charAt(i);
+        return (c == '\'' || c == '’')
+                && i > 0 && isWordChar(text.charAt(i - 1))
+                && i + 1 < text.length()
+                && isWordChar(text.charAt(i + 1));
+    }
+
+    private static long mix(long first, long second) {
+        long h = first * 0x9E3779B97F4A7C15L ^ second;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /** Id 0 marks an empty slot in VocabularyIndex */
+    static long nonZero(long id) {
+        return id == 0 ? 1 : id;
+    }
+}
@@ -0,0 +1,312 @@
+package com.saaya.automator.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * RecentLogBuffer - Hot tier of the newest shadow_logs rows
+ * A fixed-capacity ring of the last N rows, seeded once from the table and
+ * then appended to by the publish thread as each write commits, in commit
+ * order, so it always holds a contiguous run of the newest committed ids. Pages that fit inside that run
+ * are answered from memory; anything older falls through to SQLite.
+ */
+final class RecentLogBuffer {
+
+    private final int capacity;
+    private final long[] ids;
+    private final long[] timestamps;
+    private final String[] packages;
+    private final String[] recipients;
+    private final String[] messages;
+    private final int[] wordCounts;
+    private final long[] sessionIds;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Primitive columns plus three string references, per slot
+    private static final int SLOT_BYTES = 8 + 8 + 4 + 8 + 3 * 4;
+    // Rough cost of one String: header, array header and padding, plus two bytes a char
+    private static final int STRING_OVERHEAD_BYTES = 40;
+
+    // Slot of the newest row, and how many slots are filled
+    private int head = -1;
+    private int size;
+    // True while the buffer holds every row of the table
+    private boolean complete = true;
+    // Highest id taken in, kept when trimming; rows up to it are never added twice
+    private long newestId;
+
+    RecentLogBuffer(int capacity) {
+        this.capacity = capacity;
+        this.ids = new long[capacity];
+        this.timestamps = new long[capacity];
+        this.packages = new String[capacity];
+        this.recipients = new String[capacity];
+        this.messages = new String[capacity];
+        this.wordCounts = new int[capacity];
+        this.sessionIds = new long[capacity];
+    }
+
+    /**
+     * Seed with the newest rows; query must return id, timestamp, package,
+     * recipient, message, word_count, session_id ordered by id DESC with a
+     * limit of capacity + 1
+     */
+    void load(Cursor cursor) {
+        List<Object[]> rows = new ArrayList<>();
+        while (cursor.moveToNext()) {
+            rows.add(new Object[]{cursor.getLong(0), cursor.getLong(1), cursor.getString(2),
+                    cursor.getString(3), cursor.getString(4), cursor.getInt(5), cursor.getLong(6)});
+        }
+        cursor.close();
+
+        lock.writeLock().lock();
+        try {
+            reset();
+            complete = rows.size() <= capacity;
+            newestId = rows.isEmpty() ? 0 : (Long) rows.get(0)[0];
+            for (int i = Math.min(rows.size(), capacity) - 1; i >= 0; i--) {
+                Object[] row = rows.get(i);
+                append((Long) row[0], (Long) row[1], (String) row[2], (String) row[3],
+                        (String) row[4], (Integer) row[5], (Long) row[6]);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Record a committed row; ids only ever grow, and a row the seed already
+     * read from the table is skipped
+     */
+    void add(long id, long timestamp, String packageName, String recipient,
+             String message, int wordCount, long sessionId) {
+        lock.writeLock().lock();
+        try {
+            if (id <= newestId) {
+                return;
+            }
+            newestId = id;
+            append(id, timestamp, packageName, recipient, message, wordCount, sessionId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void clear() {
+        lock.writeLock().lock();
+        try {
+            reset();
+            complete = true;
+            newestId = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Forget rows with timestamps before cutoff, after the same rows were
+     * expired from the table; what is left is still the table's newest run
+     */
+    void removeOlderThan(long cutoff) {
+        lock.writeLock().lock();
+        try {
+            // Oldest first, so appending them back restores the order
+            List<Object[]> rows = new ArrayList<>(size);
+            for (int n = size - 1; n >= 0; n--) {
+                int slot = slot(n);
+                if (timestamps[slot] >= cutoff) {
+                    rows.add(new Object[]{ids[slot], timestamps[slot], packages[slot],
+                            recipients[slot], messages[slot], wordCounts[slot], sessionIds[slot]});
+                }
+            }
+            if (rows.size() == size) {
+                return;
+            }
+
+            reset();
+            for (Object[] row : rows) {
+                append((Long) row[0], (Long) row[1], (String) row[2], (String) row[3],
+                        (String) row[4], (Integer) row[5], (Long) row[6]);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Estimated bytes held: the fixed column arrays plus the strings of filled slots
+     */
+    long approximateBytes() {
+        lock.readLock().lock();
+        try {
+            return bytes();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Drop the oldest rows until the estimate fits maxBytes. What is left is
+     * still the newest run, so only the completeness flag changes; pages past
+     * it go to SQLite and new rows fill the buffer up again.
+     */
+    void trimTo(long maxBytes) {
+        lock.writeLock().lock();
+        try {
+            long bytes = bytes();
+            while (size > 0 && bytes > maxBytes) {
+                int oldest = slot(size - 1);
+                bytes -= rowBytes(oldest);
+                packages[oldest] = null;
+                recipients[oldest] = null;
+                messages[oldest] = null;
+                size--;
+                complete = false;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rows older than beforeId, newest first, or null if the buffer cannot
+     * answer the whole page
+     */
+    List<SaayaMemoryDB.LogEntry> page(long beforeId, int limit) {
+        lock.readLock().lock();
+        try {
+            int start = firstBefore(beforeId, limit);
+            if (start < 0) {
+                return null;
+            }
+            int rows = Math.min(limit, size - start);
+            List<SaayaMemoryDB.LogEntry> page = new ArrayList<>(rows);
+            for (int n = start; n < start + rows; n++) {
+                int slot = slot(n);
+                page.add(new SaayaMemoryDB.LogEntry((int) ids[slot], timestamps[slot],
+                        packages[slot], recipients[slot], messages[slot]));
+            }
+            return page;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Same page as a projected cursor, or null; columns must already be validated
+     */
+    Cursor cursor(String[] projection, long beforeId, int limit) {
+        lock.readLock().lock();
+        try {
+            int start = firstBefore(beforeId, limit);
+            if (start < 0) {
+                return null;
+            }
+            int rows = Math.min(limit, size - start);
+            MatrixCursor cursor = new MatrixCursor(projection, rows);
+            for (int n = start; n < start + rows; n++) {
+                int slot = slot(n);
+                Object[] row = new Object[projection.length];
+                for (int c = 0; c < projection.length; c++) {
+                    row[c] = column(projection[c], slot);
+                }
+                cursor.addRow(row);
+            }
+            return cursor;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Position (0 = newest) of the first row below beforeId, or -1 when the
+     * page would run past the oldest buffered row of an incomplete buffer
+     */
+    private int firstBefore(long beforeId, int limit) {
+        int start = 0;
+        while (start < size && ids[slot(start)] >= beforeId) {
+            start++;
+        }
+        if (complete || size - start >= limit) {
+            return start;
+        }
+        return -1;
+    }
+
+    private Object column(String name, int slot) {
+        switch (name) {
+            case SaayaContract.Logs.ID:
+                return ids[slot];
+            case SaayaContract.Logs.TIMESTAMP:
+                return timestamps[slot];
+            case SaayaContract.Logs.PACKAGE:
+                return packages[slot];
+            case SaayaContract.Logs.RECIPIENT:
+                return recipients[slot];
+            case SaayaContract.Logs.MESSAGE:
+                return messages[slot];
+            case SaayaContract.Logs.WORD_COUNT:
+                return wordCounts[slot];
+            case SaayaContract.Logs.SESSION_ID:
+                return sessionIds[slot];
+            default:
+                throw new IllegalArgumentException("Unknown column: " + name);
+        }
+    }
+
+    private long bytes() {
+        long bytes = (long) capacity * SLOT_BYTES;
+        for (int n = 0; n < size; n++) {
+            bytes += rowBytes(slot(n));
+        }
+        return bytes;
+    }
+
+    private long rowBytes(int slot) {
+        return stringBytes(packages[slot]) + stringBytes(recipients[slot])
+                + stringBytes(messages[slot]);
+    }
+
+    private static long stringBytes(String value) {
+        return value != null ? STRING_OVERHEAD_BYTES + 2L * value.length() : 0;
+    }
+
+    private void append(long id, long timestamp, String packageName, String recipient,
+                        String message, int wordCount, long sessionId) {
+        head = (head + 1) % capacity;
+        if (size == capacity) {
+            complete = false;
+        } else {
+            size++;
+        }
+        ids[head] = id;
+        timestamps[head] = timestamp;
+        packages[head] = packageName;
+        recipients[head] = recipient;
+        messages[head] = message;
+        wordCounts[head] = wordCount;
+        sessionIds[head] = sessionId;
+    }
+
+    /**
+     * Array slot of the n-th newest row
+     */
+    private int slot(int n) {
+        return (head - n + capacity) % capacity;
+    }
+
+    private void reset() {
+        for (int i = 0; i < capacity; i++) {
+            packages[i] = null;
+            recipients[i] = null;
+            messages[i] = null;
+        }
+        head = -1;
+        size = 0;
+    }
+}
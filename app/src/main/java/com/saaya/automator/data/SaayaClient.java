@@ -0,0 +1,287 @@
+package com.saaya.automator.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.saaya.automator.core.CacheManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SaayaClient - UI-side access to SaayaProvider
+ * Same models as SaayaMemoryDB, but every call is a ContentResolver round trip
+ * to the service process, so the UI never opens the database. Call from a
+ * background thread.
+ */
+public class SaayaClient {
+
+    private static final String TAG = "SaayaClient";
+
+    private final ContentResolver resolver;
+    private final CacheManager cacheManager;
+
+    public SaayaClient(Context context) {
+        this.resolver = context.getApplicationContext().getContentResolver();
+        this.cacheManager = CacheManager.getInstance(context);
+    }
+
+    /**
+     * One page of logs older than beforeId, newest first
+     */
+    public List<SaayaMemoryDB.LogEntry> getLogs(long beforeId, int limit) {
+        List<SaayaMemoryDB.LogEntry> logs = new ArrayList<>();
+
+        try {
+            Cursor cursor = resolver.query(SaayaContract.Logs.page(beforeId, limit),
+                    SaayaContract.Logs.DEFAULT_PROJECTION, null, null, null);
+            if (cursor != null) {
+                while (cursor.moveToNext()) {
+                    logs.add(new SaayaMemoryDB.LogEntry(
+                        cursor.getInt(0),
+                        cursor.getLong(1),
+                        cursor.getString(2),
+                        cursor.getString(3),
+                        cursor.getString(4)
+                    ));
+                }
+                cursor.close();
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error getting logs: " + e.getMessage());
+        }
+
+        return logs;
+    }
+
+    /**
+     * First page of logs for the history view
+     */
+    public List<SaayaMemoryDB.LogEntry> getAllLogs() {
+        return getLogs(Long.MAX_VALUE, SaayaContract.Logs.DEFAULT_PAGE_SIZE);
+    }
+
+    public List<SaayaMemoryDB.Session> getRecentSessions(int limit) {
+        List<SaayaMemoryDB.Session> sessions = new ArrayList<>();
+
+        try {
+            Cursor cursor = resolver.query(SaayaContract.Sessions.recent(limit),
+                    SaayaContract.Sessions.PROJECTION, null, null, null);
+            if (cursor != null) {
+                while (cursor.moveToNext()) {
+                    sessions.add(new SaayaMemoryDB.Session(
+                        cursor.getLong(0),
+                        cursor.getString(1),
+                        cursor.getString(2),
+                        cursor.getLong(3),
+                        cursor.getLong(4),
+                        cursor.getInt(5),
+                        cursor.getLong(6)
+                    ));
+                }
+                cursor.close();
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error getting sessions: " + e.getMessage());
+        }
+
+        return sessions;
+    }
+
+    public List<SaayaMemoryDB.LogEntry> getSessionLogs(long sessionId) {
+        List<SaayaMemoryDB.LogEntry> logs = new ArrayList<>();
+
+        try {
+            Cursor cursor = resolver.query(SaayaContract.Sessions.logs(sessionId),
+                    SaayaContract.Logs.DEFAULT_PROJECTION, null, null, null);
+            if (cursor != null) {
+                while (cursor.moveToNext()) {
+                    logs.add(new SaayaMemoryDB.LogEntry(
+                        cursor.getInt(0),
+                        cursor.getLong(1),
+                        cursor.getString(2),
+                        cursor.getString(3),
+                        cursor.getString(4)
+                    ));
+                }
+                cursor.close();
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error getting session logs: " + e.getMessage());
+        }
+
+        return logs;
+    }
+
+    /**
+     * Profile keys and values, or null if the provider could not be reached,
+     * so callers can tell a failed query from a profile that is still empty
+     */
+    public Map<String, String> getPersonalityProfile() {
+        try {
+            Cursor cursor = resolver.query(SaayaContract.Profile.CONTENT_URI, null, null, null, null);
+            if (cursor == null) {
+                return null;
+            }
+            Map<String, String> profile = new HashMap<>();
+            while (cursor.moveToNext()) {
+                profile.put(cursor.getString(0), cursor.getString(1));
+            }
+            cursor.close();
+            return profile;
+        } catch (Exception e) {
+            Log.e(TAG, "Error getting profile: " + e.getMessage());
+            return null;
+        }
+    }
+
+    public List<SaayaMemoryDB.RangeStat> getStats(int fromDay, int toDay, SaayaMemoryDB.GroupBy groupBy) {
+        List<SaayaMemoryDB.RangeStat> stats = new ArrayList<>();
+
+        try {
+            Cursor cursor = resolver.query(SaayaContract.Stats.range(fromDay, toDay, groupBy),
+                    null, null, null, null);
+            if (cursor != null) {
+                while (cursor.moveToNext()) {
+                    stats.add(new SaayaMemoryDB.RangeStat(
+                        cursor.getString(0),
+                        cursor.getString(1),
+                        cursor.getLong(2),
+                        cursor.getLong(3)
+                    ));
+                }
+                cursor.close();
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error getting stats: " + e.getMessage());
+        }
+
+        return stats;
+    }
+
+    /**
+     * Busiest entry of a grouping, skipping unresolved recipients; null if none
+     */
+    public SaayaMemoryDB.RangeStat getTop(int fromDay, int toDay, SaayaMemoryDB.GroupBy groupBy) {
+        for (SaayaMemoryDB.RangeStat stat : getStats(fromDay, toDay, groupBy)) {
+            if (!"Unknown".equals(stat.key)) {
+                return stat;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Ask the chat query engine; returns the question and the reply as stored,
+     * or null if the provider is unreachable
+     */
+    public List<SaayaMemoryDB.ChatMessage> askChat(String message) {
+        Bundle result = call(SaayaContract.METHOD_CHAT_QUERY, message, cacheUsage());
+        if (result == null) {
+            return null;
+        }
+        long[] ids = result.getLongArray(SaayaContract.EXTRA_MESSAGE_IDS);
+        long[] timestamps = result.getLongArray(SaayaContract.EXTRA_TIMESTAMPS);
+        if (ids == null || timestamps == null || ids.length < 2 || timestamps.length < 2) {
+            return null;
+        }
+
+        List<SaayaMemoryDB.ChatMessage> exchange = new ArrayList<>(2);
+        exchange.add(new SaayaMemoryDB.ChatMessage(ids[0], timestamps[0], true, message));
+        exchange.add(new SaayaMemoryDB.ChatMessage(ids[1], timestamps[1], false,
+                result.getString(SaayaContract.EXTRA_REPLY)));
+        return exchange;
+    }
+
+    /**
+     * Chat messages older than beforeId, returned oldest first for display
+     */
+    public List<SaayaMemoryDB.ChatMessage> getChatMessages(long beforeId, int limit) {
+        List<SaayaMemoryDB.ChatMessage> messages = readChat(SaayaContract.Chat.page(beforeId, limit));
+        Collections.reverse(messages);
+        return messages;
+    }
+
+    /**
+     * Chat messages newer than afterId, oldest first
+     */
+    public List<SaayaMemoryDB.ChatMessage> getChatMessagesAfter(long afterId, int limit) {
+        return readChat(SaayaContract.Chat.after(afterId, limit));
+    }
+
+    private List<SaayaMemoryDB.ChatMessage> readChat(Uri uri) {
+        List<SaayaMemoryDB.ChatMessage> messages = new ArrayList<>();
+
+        try {
+            Cursor cursor = resolver.query(uri, SaayaContract.Chat.PROJECTION, null, null, null);
+            if (cursor != null) {
+                while (cursor.moveToNext()) {
+                    messages.add(new SaayaMemoryDB.ChatMessage(
+                        cursor.getLong(0),
+                        cursor.getLong(1),
+                        cursor.getInt(2) != 0,
+                        cursor.getString(3)
+                    ));
+                }
+                cursor.close();
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error getting chat messages: " + e.getMessage());
+        }
+
+        return messages;
+    }
+
+    public boolean isServiceActive() {
+        Bundle result = call(SaayaContract.METHOD_SERVICE_STATUS, null);
+        return result != null && result.getBoolean(SaayaContract.EXTRA_ACTIVE);
+    }
+
+    public Map<String, String> getDiagnostics() {
+        Map<String, String> diagnostics = new LinkedHashMap<>();
+        Bundle result = call(SaayaContract.METHOD_DIAGNOSTICS, null, cacheUsage());
+        if (result != null) {
+            String[] keys = result.getStringArray(SaayaContract.EXTRA_KEYS);
+            String[] values = result.getStringArray(SaayaContract.EXTRA_VALUES);
+            if (keys != null && values != null) {
+                for (int i = 0; i < keys.length && i < values.length; i++) {
+                    diagnostics.put(keys[i], values[i]);
+                }
+            }
+        }
+        return diagnostics;
+    }
+
+    /**
+     * This process's cache usage, for the provider to show beside its own
+     */
+    private Bundle cacheUsage() {
+        Map<String, String> usage = cacheManager.getUsage();
+        Bundle extras = new Bundle();
+        extras.putString(SaayaContract.EXTRA_CALLER_PROCESS, cacheManager.getProcess());
+        extras.putStringArray(SaayaContract.EXTRA_CALLER_CACHE_KEYS, usage.keySet().toArray(new String[0]));
+        extras.putStringArray(SaayaContract.EXTRA_CALLER_CACHE_VALUES, usage.values().toArray(new String[0]));
+        return extras;
+    }
+
+    private Bundle call(String method, String arg) {
+        return call(method, arg, null);
+    }
+
+    private Bundle call(String method, String arg, Bundle extras) {
+        try {
+            return resolver.call(SaayaContract.BASE_URI, method, arg, extras);
+        } catch (Exception e) {
+            Log.e(TAG, "Provider call " + method + " failed: " + e.getMessage());
+            return null;
+        }
+    }
+}
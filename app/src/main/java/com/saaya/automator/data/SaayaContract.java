@@ -0,0 +1,188 @@
+package com.saaya.automator.data;
+
+import android.net.Uri;
+
+import com.saaya.automator.BuildConfig;
+
+/**
+ * SaayaContract - URIs, columns and call methods exposed by SaayaProvider
+ * The UI reads through these instead of opening SaayaMemoryDB, so the service
+ * and database can live in their own process.
+ */
+public final class SaayaContract {
+
+    public static final String AUTHORITY = BuildConfig.APPLICATION_ID + ".provider";
+    public static final Uri BASE_URI = Uri.parse("content://" + AUTHORITY);
+
+    // Query parameters
+    public static final String PARAM_LIMIT = "limit";
+    public static final String PARAM_BEFORE_ID = "before_id";
+    public static final String PARAM_AFTER_ID = "after_id";
+    public static final String PARAM_FROM_DAY = "from_day";
+    public static final String PARAM_TO_DAY = "to_day";
+    public static final String PARAM_GROUP_BY = "group_by";
+
+    // call() methods
+    public static final String METHOD_CHAT_QUERY = "chat_query";
+    public static final String METHOD_SERVICE_STATUS = "service_status";
+    public static final String METHOD_DIAGNOSTICS = "diagnostics";
+    public static final String EXTRA_REPLY = "reply";
+    public static final String EXTRA_MESSAGE_IDS = "message_ids";
+    public static final String EXTRA_TIMESTAMPS = "timestamps";
+    public static final String EXTRA_ACTIVE = "active";
+    public static final String EXTRA_KEYS = "keys";
+    public static final String EXTRA_VALUES = "values";
+    // Sent with chat_query and diagnostics: the calling process's cache usage
+    public static final String EXTRA_CALLER_PROCESS = "caller_process";
+    public static final String EXTRA_CALLER_CACHE_KEYS = "caller_cache_keys";
+    public static final String EXTRA_CALLER_CACHE_VALUES = "caller_cache_values";
+
+    private SaayaContract() {
+    }
+
+    /**
+     * shadow_logs, newest first, paged by id
+     */
+    public static final class Logs {
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_URI, "logs");
+
+        public static final String ID = "id";
+        public static final String TIMESTAMP = "timestamp";
+        public static final String PACKAGE = "package_name";
+        public static final String RECIPIENT = "recipient_name";
+        public static final String MESSAGE = "message_text";
+        public static final String WORD_COUNT = "word_count";
+        public static final String SESSION_ID = "session_id";
+
+        public static final String[] DEFAULT_PROJECTION = {ID, TIMESTAMP, PACKAGE, RECIPIENT, MESSAGE};
+
+        public static final int DEFAULT_PAGE_SIZE = 100;
+
+        private Logs() {
+        }
+
+        /**
+         * One page of rows older than beforeId
+         */
+        public static Uri page(long beforeId, int limit) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(PARAM_BEFORE_ID, String.valueOf(beforeId))
+                    .appendQueryParameter(PARAM_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+    }
+
+    /**
+     * Conversation sessions, most recently active first
+     */
+    public static final class Sessions {
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_URI, "sessions");
+
+        public static final String ID = "id";
+        public static final String PACKAGE = "package_name";
+        public static final String RECIPIENT = "recipient_name";
+        public static final String START_TIME = "start_time";
+        public static final String END_TIME = "end_time";
+        public static final String MESSAGE_COUNT = "message_count";
+        public static final String WORD_COUNT = "word_count";
+
+        public static final String[] PROJECTION = {
+            ID, PACKAGE, RECIPIENT, START_TIME, END_TIME, MESSAGE_COUNT, WORD_COUNT};
+
+        public static final int DEFAULT_PAGE_SIZE = 20;
+
+        private Sessions() {
+        }
+
+        public static Uri recent(int limit) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(PARAM_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        /**
+         * Messages of one session, oldest first, in Logs.DEFAULT_PROJECTION order
+         */
+        public static Uri logs(long sessionId) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(String.valueOf(sessionId))
+                    .appendPath("logs")
+                    .build();
+        }
+    }
+
+    /**
+     * Assistant chat transcript, paged by id; chat_query appends to it
+     */
+    public static final class Chat {
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_URI, "chat");
+
+        public static final String ID = "id";
+        public static final String TIMESTAMP = "timestamp";
+        public static final String IS_USER = "is_user";
+        public static final String TEXT = "text";
+
+        public static final String[] PROJECTION = {ID, TIMESTAMP, IS_USER, TEXT};
+
+        public static final int DEFAULT_PAGE_SIZE = 50;
+
+        private Chat() {
+        }
+
+        /**
+         * Messages older than beforeId, newest first
+         */
+        public static Uri page(long beforeId, int limit) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(PARAM_BEFORE_ID, String.valueOf(beforeId))
+                    .appendQueryParameter(PARAM_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        /**
+         * Messages newer than afterId, oldest first
+         */
+        public static Uri after(long afterId, int limit) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(PARAM_AFTER_ID, String.valueOf(afterId))
+                    .appendQueryParameter(PARAM_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+    }
+
+    /**
+     * Personality profile snapshot as key/value rows
+     */
+    public static final class Profile {
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_URI, "profile");
+
+        public static final String KEY = "key";
+        public static final String VALUE = "value";
+
+        private Profile() {
+        }
+    }
+
+    /**
+     * Range statistics from the bucket aggregates
+     */
+    public static final class Stats {
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_URI, "stats");
+
+        public static final String KEY = "key";
+        public static final String LABEL = "label";
+        public static final String MESSAGE_COUNT = "message_count";
+        public static final String WORD_COUNT = "word_count";
+
+        private Stats() {
+        }
+
+        public static Uri range(int fromDay, int toDay, SaayaMemoryDB.GroupBy groupBy) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(PARAM_FROM_DAY, String.valueOf(fromDay))
+                    .appendQueryParameter(PARAM_TO_DAY, String.valueOf(toDay))
+                    .appendQueryParameter(PARAM_GROUP_BY, groupBy.name())
+                    .build();
+        }
+    }
+}
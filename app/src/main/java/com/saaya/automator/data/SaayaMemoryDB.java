@@ -5,21 +5,52 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
 import android.util.Log;
 
+import com.saaya.automator.BuildConfig;
+import com.saaya.automator.core.CacheManager;
+import com.saaya.automator.core.SaayaTrace;
+
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * SaayaMemoryDB - Enhanced Database with Analytics
+ *
+ * Concurrency: the database runs in WAL mode, so reads are served by the
+ * connection pool's reader connections and never wait for a write. Every write
+ * is one non-exclusive transaction on the single primary connection, which the
+ * pool hands to one thread at a time, so writers are serialized without a
+ * Java monitor, and a writer takes no Java lock at all. Once a write has
+ * committed, its rows are handed to a single publish thread that applies them
+ * to the in-memory indexes in commit order (see endWrite), so a rollback never
+ * leaves the indexes ahead of the table and index work, including file
+ * flushes and cold builds, never delays a commit. Readers of the indexes only
+ * take the indexes' shared read locks; a reader that finds an index unloaded
+ * builds it under indexLock, which only the publish thread also takes.
  */
 public class SaayaMemoryDB extends SQLiteOpenHelper {
 
     private static final String TAG = "SaayaMemoryDB";
     private static final String DATABASE_NAME = "saaya_brain.db";
-    private static final int DATABASE_VERSION = 3;
+    private static final int DATABASE_VERSION = 7;
 
     // Table: shadow_logs
     private static final String TABLE_LOGS = "shadow_logs";
@@ -28,6 +59,38 @@ public class SaayaMemoryDB extends SQLiteOpenHelper {
     private static final String COL_PACKAGE = "package_name";
     private static final String COL_RECIPIENT = "recipient_name";
     private static final String COL_MESSAGE = "message_text";
+    private static final String COL_WORD_COUNT = "word_count";
+    private static final String COL_SESSION_ID = "session_id";
+    private static final String[] LOG_COLUMN_ORDER = {
+            COL_ID, COL_TIMESTAMP, COL_PACKAGE, COL_RECIPIENT, COL_MESSAGE, COL_WORD_COUNT,
+            COL_SESSION_ID};
+    private static final Set<String> LOG_COLUMNS = new HashSet<>(Arrays.asList(LOG_COLUMN_ORDER));
+    // Everything after the id; shared with the monthly partitions
+    private static final String LOG_COLUMNS_SQL = COL_TIMESTAMP + " INTEGER NOT NULL, "
+            + COL_PACKAGE + " TEXT NOT NULL, "
+            + COL_RECIPIENT + " TEXT, "
+            + COL_MESSAGE + " TEXT, "
+            + COL_WORD_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+            + COL_SESSION_ID + " INTEGER";
+
+    // Table: daily_buckets (one row per local day x package x recipient)
+    private static final String TABLE_BUCKETS = "daily_buckets";
+    private static final String COL_DAY = "day";
+    private static final String COL_MESSAGE_COUNT = "message_count";
+
+    // Table: sessions (runs of messages to one recipient in one app)
+    private static final String TABLE_SESSIONS = "sessions";
+    private static final String COL_START_TIME = "start_time";
+    private static final String COL_END_TIME = "end_time";
+
+    // A message more than this far from a conversation's last one starts a new session
+    static final long SESSION_IDLE_GAP_MS = 30 * 60 * 1000L;
+
+    // Table: chat_messages (the assistant conversation in MainActivity)
+    private static final String TABLE_CHAT = "chat_messages";
+    private static final String COL_IS_USER = "is_user";
+    private static final String COL_TEXT = "text";
+    private static final String[] CHAT_COLUMNS = {COL_ID, COL_TIMESTAMP, COL_IS_USER, COL_TEXT};
 
     // Table: user_identity
     private static final String TABLE_IDENTITY = "user_identity";
@@ -35,10 +98,115 @@ public class SaayaMemoryDB extends SQLiteOpenHelper {
     private static final String COL_NAME = "name";
     private static final String COL_ROLE = "role";
 
+    // Newest rows kept in memory; comfortably more than the first page
+    private static final int RECENT_LOG_CAPACITY = 256;
+
+    // Memory budgets under CacheManager, held on every publish and trimmed to
+    // fractions under pressure. Analytics is above what the vocabulary caps
+    // allow, so only runaway day-range trees across many packages reach it.
+    private static final String RECENT_LOG_CACHE = "recentLogs";
+    private static final long RECENT_LOG_CACHE_BYTES = 128 * 1024;
+    private static final String ANALYTICS_CACHE = "analytics";
+    private static final long ANALYTICS_CACHE_BYTES = 24 * 1024 * 1024;
+
     private static SaayaMemoryDB instance;
+    // Shared by every instance in the process; see schedule()
+    private static HandlerThread publishThread;
+
+    private final File filesDir;
+    private final String indexFileName;
+    private final String sketchFileName;
+    private final AppLabels appLabels;
+    // Only the real database registers its caches; null for benchmark copies
+    private CacheManager cacheManager;
+    private final LogPartitions logs = new LogPartitions(BuildConfig.PARTITIONED_LOGS, TABLE_LOGS,
+            LOG_COLUMN_ORDER, LOG_COLUMNS_SQL, COL_TIMESTAMP, COL_SESSION_ID);
+    private volatile SQLiteDatabase database;
+    private volatile TextIndex textIndex;
+    private volatile BucketIndex bucketIndex;
+    private volatile RecentLogBuffer recentLogs;
+    private volatile SketchIndex sketchIndex;
+    // Guards building, dropping and publishing to the in-memory indexes; never taken by a writer
+    private final Object indexLock = new Object();
+    private final Handler publishHandler;
+    // Taken inside each write transaction; the primary connection serializes
+    // those, so tickets follow commit order
+    private final AtomicLong issuedTickets = new AtomicLong();
+    // Publish thread only: the next ticket to apply and changes that arrived before it
+    private long nextTicket = 1;
+    private final Map<Long, Runnable> earlyChanges = new HashMap<>();
+    // Stands in for a write that rolled back, so later tickets are not held up
+    private static final Runnable NO_CHANGE = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    /**
+     * Grouping for range statistics
+     */
+    public enum GroupBy {
+        NONE,
+        APP,
+        RECIPIENT
+    }
 
     private SaayaMemoryDB(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME, TextIndex.FILE_NAME, SketchIndex.FILE_NAME);
+
+        // Only the real database answers memory pressure; benchmark copies are short-lived.
+        // The analytics indexes cannot shrink part way, so they go whole or not at all.
+        cacheManager = CacheManager.getInstance(context);
+        cacheManager.registerWhole(ANALYTICS_CACHE, ANALYTICS_CACHE_BYTES, new CacheManager.Cache() {
+            @Override
+            public long sizeBytes() {
+                return analyticsBytes();
+            }
+
+            @Override
+            public void trimTo(long maxBytes) {
+                if (analyticsBytes() > maxBytes) {
+                    releaseAnalytics();
+                }
+            }
+        });
+        cacheManager.register(RECENT_LOG_CACHE, RECENT_LOG_CACHE_BYTES, new CacheManager.Cache() {
+            @Override
+            public long sizeBytes() {
+                RecentLogBuffer buffer = recentLogs;
+                return buffer != null ? buffer.approximateBytes() : 0;
+            }
+
+            @Override
+            public void trimTo(long maxBytes) {
+                RecentLogBuffer buffer = recentLogs;
+                if (buffer != null) {
+                    buffer.trimTo(maxBytes);
+                }
+            }
+        });
+    }
+
+    /**
+     * Separate database and index files, e.g. for synthetic benchmark data
+     */
+    SaayaMemoryDB(Context context, String databaseName, String indexFileName,
+                  String sketchFileName) {
+        super(context, databaseName, null, DATABASE_VERSION);
+        this.filesDir = context.getFilesDir();
+        this.indexFileName = indexFileName;
+        this.sketchFileName = sketchFileName;
+        this.appLabels = AppLabels.getInstance(context);
+        this.publishHandler = new Handler(publishLooper());
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    private static synchronized Looper publishLooper() {
+        if (publishThread == null) {
+            publishThread = new HandlerThread("SaayaIndexPublish", Process.THREAD_PRIORITY_BACKGROUND);
+            publishThread.start();
+        }
+        return publishThread.getLooper();
     }
 
     public static synchronized SaayaMemoryDB getInstance(Context context) {
@@ -51,12 +219,10 @@ public class SaayaMemoryDB extends SQLiteOpenHelper {
     @Override
     public void onCreate(SQLiteDatabase db) {
         // Create logs table
+        // Always the single-table layout; onOpen splits it if partitioning is on
         String CREATE_LOGS_TABLE = "CREATE TABLE " + TABLE_LOGS + " ("
                 + COL_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
-                + COL_TIMESTAMP + " INTEGER NOT NULL, "
-                + COL_PACKAGE + " TEXT NOT NULL, "
-                + COL_RECIPIENT + " TEXT, "
-                + COL_MESSAGE + " TEXT"
+                + LOG_COLUMNS_SQL
                 + ")";
         
         // Create identity table
@@ -68,6 +234,9 @@ public class SaayaMemoryDB extends SQLiteOpenHelper {
         
         db.execSQL(CREATE_LOGS_TABLE);
         db.execSQL(CREATE_IDENTITY_TABLE);
+        createBucketsTable(db);
+        createSessionsTable(db);
+        createChatTable(db);
         
         // Initialize with owner identity
         initializeIdentity(db);
@@ -75,6 +244,52 @@ public class SaayaMemoryDB extends SQLiteOpenHelper {
         Log.d(TAG, "Database created successfully with identity");
     }
 
+    /**
+     * Aggregates kept up to date by saveLog; the primary key doubles as the day-range index
+     */
+    private void createBucketsTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_BUCKETS + " ("
+                + COL_DAY + " INTEGER NOT NULL, "
+                + COL_PACKAGE + " TEXT NOT NULL, "
+                + COL_RECIPIENT + " TEXT NOT NULL, "
+                + COL_MESSAGE_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+                + COL_WORD_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+                + "PRIMARY KEY (" + COL_DAY + ", " + COL_PACKAGE + ", " + COL_RECIPIENT + ")"
+                + ") WITHOUT ROWID");
+    }
+
+    /**
+     * Sessions plus the indexes behind recent-conversation and drill-down reads
+     */
+    private void createSessionsTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_SESSIONS + " ("
+                + COL_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + COL_PACKAGE + " TEXT NOT NULL, "
+                + COL_RECIPIENT + " TEXT NOT NULL, "
+                + COL_START_TIME + " INTEGER NOT NULL, "
+                + COL_END_TIME + " INTEGER NOT NULL, "
+                + COL_MESSAGE_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+                + COL_WORD_COUNT + " INTEGER NOT NULL DEFAULT 0"
+                + ")");
+        db.execSQL("CREATE INDEX idx_sessions_conversation ON " + TABLE_SESSIONS
+                + " (" + COL_PACKAGE + ", " + COL_RECIPIENT + ", " + COL_END_TIME + ")");
+        db.execSQL("CREATE INDEX idx_sessions_end ON " + TABLE_SESSIONS + " (" + COL_END_TIME + ")");
+        db.execSQL("CREATE INDEX " + LogPartitions.SESSION_INDEX + " ON " + TABLE_LOGS
+                + " (" + COL_SESSION_ID + ")");
+    }
+
+    /**
+     * Assistant chat transcript; paged by id, so the rowid is the only index needed
+     */
+    private void createChatTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_CHAT + " ("
+                + COL_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + COL_TIMESTAMP + " INTEGER NOT NULL, "
+                + COL_IS_USER + " INTEGER NOT NULL, "
+                + COL_TEXT + " TEXT NOT NULL"
+                + ")");
+    }
+
     /**
      * Initialize user identity with default values
      */
@@ -96,7 +311,7 @@ public class SaayaMemoryDB extends SQLiteOpenHelper {
         identity.put("role", "Java Expert & Owner");
         
         try {
-            SQLiteDatabase db = this.getReadableDatabase();
+            SQLiteDatabase db = database();
             Cursor cursor = db.rawQuery("SELECT * FROM " + TABLE_IDENTITY + " LIMIT 1", null);
             
             if (cursor != null && cursor.moveToFirst()) {
@@ -111,196 +326,1175 @@ public class SaayaMemoryDB extends SQLiteOpenHelper {
         return identity;
     }
 
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        logs.open(db);
+    }
+
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_LOGS);
-        onCreate(db);
+        logs.prepareForUpgrade(db);
+
+        if (oldVersion < 3) {
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_LOGS);
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_IDENTITY);
+            onCreate(db);
+            return;
+        }
+
+        if (oldVersion < 4) {
+            db.execSQL("ALTER TABLE " + TABLE_LOGS + " ADD COLUMN "
+                    + COL_WORD_COUNT + " INTEGER NOT NULL DEFAULT 0");
+            backfillWordCounts(db);
+        }
+
+        if (oldVersion < 5) {
+            createBucketsTable(db);
+            db.execSQL("INSERT INTO " + TABLE_BUCKETS + " SELECT "
+                    + "CAST(julianday(" + COL_TIMESTAMP + "/1000, 'unixepoch', 'localtime') - 2440587.5 AS INTEGER), "
+                    + COL_PACKAGE + ", IFNULL(" + COL_RECIPIENT + ", 'Unknown'), COUNT(*), SUM(" + COL_WORD_COUNT + ") "
+                    + "FROM " + TABLE_LOGS + " GROUP BY 1, 2, 3");
+        }
+
+        if (oldVersion < 6) {
+            db.execSQL("ALTER TABLE " + TABLE_LOGS + " ADD COLUMN " + COL_SESSION_ID + " INTEGER");
+            createSessionsTable(db);
+            backfillSessions(db);
+        }
+
+        if (oldVersion < 7) {
+            createChatTable(db);
+        }
+    }
+
+    /**
+     * One-time pass giving pre-existing rows their exact word count
+     */
+    private void backfillWordCounts(SQLiteDatabase db) {
+        SQLiteStatement update = db.compileStatement(
+            "UPDATE " + TABLE_LOGS + " SET " + COL_WORD_COUNT + " = ? WHERE " + COL_ID + " = ?");
+        Cursor cursor = db.rawQuery(
+            "SELECT " + COL_ID + ", " + COL_MESSAGE + " FROM " + TABLE_LOGS, null);
+
+        while (cursor.moveToNext()) {
+            update.bindLong(1, MessageTokenizer.countWords(cursor.getString(1)));
+            update.bindLong(2, cursor.getLong(0));
+            update.executeUpdateDelete();
+        }
+
+        cursor.close();
+        update.close();
+        Log.d(TAG, "Word counts backfilled");
+    }
+
+    /**
+     * Open database handle. getWritableDatabase() locks the helper on every
+     * call, so the handle is cached once open; in WAL mode the same handle
+     * serves both the writer and the pooled readers.
+     */
+    private SQLiteDatabase database() {
+        SQLiteDatabase db = database;
+        if (db == null) {
+            synchronized (this) {
+                db = database;
+                if (db == null) {
+                    db = getWritableDatabase();
+                    database = db;
+                }
+            }
+        }
+        return db;
+    }
+
+    /**
+     * One-time pass splitting existing rows into sessions, one conversation at a time
+     */
+    private void backfillSessions(SQLiteDatabase db) {
+        SQLiteStatement assign = db.compileStatement(
+            "UPDATE " + TABLE_LOGS + " SET " + COL_SESSION_ID + " = ? WHERE " + COL_ID + " = ?");
+        Cursor cursor = db.rawQuery(
+            "SELECT " + COL_ID + ", " + COL_TIMESTAMP + ", " + COL_PACKAGE + ", "
+            + "IFNULL(" + COL_RECIPIENT + ", 'Unknown'), " + COL_WORD_COUNT
+            + " FROM " + TABLE_LOGS
+            + " ORDER BY 3, 4, 2", null);
+
+        List<Long> rowIds = new ArrayList<>();
+        String packageName = null;
+        String recipient = null;
+        long start = 0;
+        long end = 0;
+        long words = 0;
+        int sessions = 0;
+
+        while (true) {
+            boolean more = cursor.moveToNext();
+            boolean sameSession = more && cursor.getString(2).equals(packageName)
+                    && cursor.getString(3).equals(recipient)
+                    && cursor.getLong(1) - end <= SESSION_IDLE_GAP_MS;
+
+            if (!sameSession && !rowIds.isEmpty()) {
+                long sessionId = insertSession(db, packageName, recipient, start, end,
+                        rowIds.size(), words);
+                for (long rowId : rowIds) {
+                    assign.bindLong(1, sessionId);
+                    assign.bindLong(2, rowId);
+                    assign.executeUpdateDelete();
+                }
+                rowIds.clear();
+                sessions++;
+            }
+            if (!more) {
+                break;
+            }
+
+            if (!sameSession) {
+                packageName = cursor.getString(2);
+                recipient = cursor.getString(3);
+                start = cursor.getLong(1);
+                words = 0;
+            }
+            rowIds.add(cursor.getLong(0));
+            end = cursor.getLong(1);
+            words += cursor.getLong(4);
+        }
+
+        cursor.close();
+        assign.close();
+        Log.d(TAG, "Sessions backfilled: " + sessions);
+    }
+
+    /**
+     * Vocabulary index, loaded and caught up with the table on first use
+     */
+    private TextIndex getTextIndex() {
+        TextIndex index = textIndex;
+        if (index == null) {
+            synchronized (indexLock) {
+                index = textIndex;
+                if (index == null) {
+                    index = new TextIndex(new File(filesDir, indexFileName));
+                    SQLiteDatabase db = database();
+                    index.open(db, TABLE_LOGS, COL_ID, COL_MESSAGE, logs.maxId(db));
+                    textIndex = index;
+                }
+            }
+            enforceBudget(ANALYTICS_CACHE);
+        }
+        return index;
+    }
+
+    /**
+     * Day-range index, built from daily_buckets on first use
+     */
+    private BucketIndex getBucketIndex() {
+        BucketIndex index = bucketIndex;
+        if (index == null) {
+            synchronized (indexLock) {
+                index = bucketIndex;
+                if (index == null) {
+                    index = new BucketIndex(appLabels);
+                    index.load(database(), TABLE_BUCKETS, COL_DAY,
+                            COL_PACKAGE, COL_MESSAGE_COUNT, COL_WORD_COUNT, logs.maxIdSql());
+                    bucketIndex = index;
+                }
+            }
+            enforceBudget(ANALYTICS_CACHE);
+        }
+        return index;
     }
 
     /**
-     * Save log entry (called from background thread)
+     * Hot tier of the newest rows, seeded from the table on first use
      */
-    public synchronized boolean saveLog(long timestamp, String packageName, 
-                                       String recipientName, String messageText) {
-        if (packageName == null || packageName.isEmpty()) {
-            return false;
+    private RecentLogBuffer getRecentLogs() {
+        RecentLogBuffer buffer = recentLogs;
+        if (buffer == null) {
+            synchronized (indexLock) {
+                buffer = recentLogs;
+                if (buffer == null) {
+                    buffer = new RecentLogBuffer(RECENT_LOG_CAPACITY);
+                    buffer.load(logs.page(database(), LOG_COLUMN_ORDER,
+                            Long.MAX_VALUE, RECENT_LOG_CAPACITY + 1));
+                    recentLogs = buffer;
+                }
+            }
+            enforceBudget(RECENT_LOG_CACHE);
+        }
+        return buffer;
+    }
+
+    /**
+     * Approximate recipient and app counters, loaded and caught up on first use
+     */
+    private SketchIndex getSketchIndex() {
+        SketchIndex index = sketchIndex;
+        if (index == null) {
+            synchronized (indexLock) {
+                index = sketchIndex;
+                if (index == null) {
+                    index = new SketchIndex(new File(filesDir, sketchFileName));
+                    SQLiteDatabase db = database();
+                    index.open(db, TABLE_LOGS, COL_ID, COL_TIMESTAMP, COL_PACKAGE, COL_RECIPIENT,
+                            logs.maxId(db));
+                    sketchIndex = index;
+                }
+            }
+            enforceBudget(ANALYTICS_CACHE);
         }
+        return index;
+    }
 
-        SQLiteDatabase db = this.getWritableDatabase();
+    /**
+     * Bytes held by the word, day-range and sketch indexes that are loaded
+     */
+    private long analyticsBytes() {
+        long bytes = 0;
+        TextIndex text = textIndex;
+        if (text != null) {
+            bytes += text.approximateBytes();
+        }
+        BucketIndex buckets = bucketIndex;
+        if (buckets != null) {
+            bytes += buckets.approximateBytes();
+        }
+        SketchIndex sketches = sketchIndex;
+        if (sketches != null) {
+            bytes += sketches.approximateBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Drop the analytics indexes under memory pressure. Writers do not bring
+     * them back: saved rows only reach the table, and the next read loads
+     * the indexes from their files and catches them up from there. The
+     * publish thread only touches the indexes under indexLock, so it cannot be
+     * left updating a dropped one.
+     */
+    void releaseAnalytics() {
+        synchronized (indexLock) {
+            TextIndex text = textIndex;
+            if (text != null) {
+                text.flush();
+            }
+            SketchIndex sketches = sketchIndex;
+            if (sketches != null) {
+                sketches.flush();
+            }
+            textIndex = null;
+            bucketIndex = null;
+            sketchIndex = null;
+        }
+        Log.d(TAG, "Analytics indexes released");
+    }
+
+    /**
+     * Build the in-memory indexes now, off the caller's critical path, so the
+     * first dashboard read is served from memory
+     */
+    public void warmUp() {
+        getTextIndex();
+        getBucketIndex();
+        getRecentLogs();
+        getSketchIndex();
+    }
+
+    /**
+     * Save log entry (called from background thread). Safe from any thread:
+     * concurrent callers queue for the primary connection, not a Java lock.
+     */
+    public boolean saveLog(long timestamp, String packageName,
+                           String recipientName, String messageText) {
+        SaayaTrace.begin(SaayaTrace.INSERT_LOG);
+        try {
+            if (packageName == null || packageName.isEmpty()) {
+                return false;
+            }
+
+            SQLiteDatabase db = database();
+            long result;
+            List<SavedLog> saved = new ArrayList<>(1);
+            boolean successful = false;
+            db.beginTransactionNonExclusive();
+            long ticket = issuedTickets.incrementAndGet();
+            try {
+                result = insertLog(db, saved, timestamp, packageName, recipientName, messageText);
+                if (result != -1) {
+                    db.setTransactionSuccessful();
+                    successful = true;
+                }
+            } finally {
+                endWrite(db, ticket, successful, publishing(saved));
+            }
+            markCommitted(saved);
+
+            return result != -1;
+        } finally {
+            SaayaTrace.end();
+        }
+    }
+
+    /**
+     * Save many entries in one transaction; ids of the entries are ignored.
+     * Returns how many were saved.
+     */
+    public int saveLogs(List<LogEntry> entries) {
+        SaayaTrace.begin(SaayaTrace.INSERT_BATCH);
+        try {
+            SQLiteDatabase db = database();
+            List<SavedLog> saved = new ArrayList<>(entries.size());
+            boolean successful = false;
+            db.beginTransactionNonExclusive();
+            long ticket = issuedTickets.incrementAndGet();
+            try {
+                for (LogEntry entry : entries) {
+                    if (entry.packageName == null || entry.packageName.isEmpty()) {
+                        continue;
+                    }
+                    insertLog(db, saved, entry.timestamp,
+                            entry.packageName, entry.recipientName, entry.messageText);
+                }
+                db.setTransactionSuccessful();
+                successful = true;
+            } finally {
+                endWrite(db, ticket, successful, publishing(saved));
+            }
+            markCommitted(saved);
+            return saved.size();
+        } finally {
+            SaayaTrace.end();
+        }
+    }
+
+    /**
+     * End a write transaction, then queue change for the publish thread if
+     * the transaction committed. No Java lock is held: the ticket, taken
+     * right after the transaction began, keeps changes in commit order. A
+     * failed commit throws out of endTransaction and queues nothing but its
+     * ticket. Partitions the transaction created or dropped reach the router
+     * the same way, so a rollback never leaves it routing wrongly.
+     */
+    private void endWrite(SQLiteDatabase db, long ticket, boolean successful, Runnable change) {
+        LogPartitions.Change layout = logs.endingTransaction(successful);
+        boolean committed = false;
+        try {
+            db.endTransaction();
+            committed = successful;
+        } finally {
+            layout.finish(committed);
+            schedule(ticket, committed ? change : NO_CHANGE);
+        }
+    }
+
+    /**
+     * Run change on the publish thread, under indexLock, once every earlier
+     * ticket has run
+     */
+    private void schedule(final long ticket, final Runnable change) {
+        publishHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                earlyChanges.put(ticket, change);
+                Runnable next;
+                while ((next = earlyChanges.remove(nextTicket)) != null) {
+                    nextTicket++;
+                    synchronized (indexLock) {
+                        try {
+                            next.run();
+                        } catch (RuntimeException e) {
+                            // Half-applied; rebuild from the table on next use
+                            Log.e(TAG, "Error publishing to indexes: " + e.getMessage());
+                            textIndex = null;
+                            bucketIndex = null;
+                            recentLogs = null;
+                            sketchIndex = null;
+                        }
+                    }
+                }
+                enforceBudget(RECENT_LOG_CACHE);
+                enforceBudget(ANALYTICS_CACHE);
+            }
+        });
+    }
+
+    /**
+     * Have CacheManager hold a cache to its budget after it grew
+     */
+    private void enforceBudget(String cache) {
+        CacheManager manager = cacheManager;
+        if (manager != null) {
+            manager.enforce(cache);
+        }
+    }
+
+    /**
+     * Wait until the publish thread has applied every write that returned
+     * before this call, provided none is still in flight; for tests and
+     * benchmarks that read the indexes straight after writing
+     */
+    void awaitPublished() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        publishHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        done.await();
+    }
+
+    /**
+     * Widen the partition id ranges for committed rows, on the writer's
+     * thread, so paging through SQLite sees them as soon as saveLog returns
+     */
+    private void markCommitted(List<SavedLog> saved) {
+        for (SavedLog row : saved) {
+            logs.committed(row.timestamp, row.id);
+        }
+    }
+
+    private Runnable publishing(final List<SavedLog> saved) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                publish(saved);
+            }
+        };
+    }
+
+    /**
+     * Apply committed rows to the indexes that are loaded; publish thread
+     * only. An index that is not loaded catches up from the table when it is
+     * next built, and one built after these rows committed skips them.
+     */
+    private void publish(List<SavedLog> saved) {
+        TextIndex index = textIndex;
+        if (index != null) {
+            for (SavedLog row : saved) {
+                index.ingest(row.id, row.message);
+            }
+            index.flushIfDue();
+        }
+
+        BucketIndex buckets = bucketIndex;
+        if (buckets != null) {
+            for (SavedLog row : saved) {
+                buckets.addRow(row.id, epochDay(row.timestamp), row.packageName, row.wordCount);
+            }
+        }
+
+        RecentLogBuffer recent = recentLogs;
+        if (recent != null) {
+            for (SavedLog row : saved) {
+                recent.add(row.id, row.timestamp, row.packageName, row.recipient, row.message,
+                        row.wordCount, row.sessionId);
+            }
+        }
+
+        SketchIndex sketches = sketchIndex;
+        if (sketches != null) {
+            for (SavedLog row : saved) {
+                sketches.add(row.id, row.timestamp, row.packageName, row.recipient);
+            }
+            sketches.flushIfDue();
+        }
+    }
+
+    /**
+     * Row and bucket updates for one entry; caller owns the transaction. The
+     * saved row is added to saved for the publish thread.
+     */
+    private long insertLog(SQLiteDatabase db, List<SavedLog> saved, long timestamp,
+                           String packageName, String recipientName, String messageText) {
         ContentValues values = new ContentValues();
-        
+        String recipient = recipientName != null ? recipientName : "Unknown";
+        String message = messageText != null ? messageText : "";
+        int wordCount = MessageTokenizer.countWords(message);
+
         values.put(COL_TIMESTAMP, timestamp);
         values.put(COL_PACKAGE, packageName);
-        values.put(COL_RECIPIENT, recipientName != null ? recipientName : "Unknown");
-        values.put(COL_MESSAGE, messageText != null ? messageText : "");
+        values.put(COL_RECIPIENT, recipient);
+        values.put(COL_MESSAGE, message);
+        values.put(COL_WORD_COUNT, wordCount);
+        long sessionId = attachToSession(db, timestamp, packageName, recipient, wordCount);
+        values.put(COL_SESSION_ID, sessionId);
 
-        long result = db.insert(TABLE_LOGS, null, values);
-        
-        return result != -1;
+        long result = logs.insert(db, values, timestamp);
+        if (result != -1) {
+            int day = epochDay(timestamp);
+            addToBucket(db, day, packageName, recipient, wordCount);
+            saved.add(new SavedLog(result, timestamp, packageName, recipient, message,
+                    wordCount, sessionId));
+        }
+        return result;
+    }
+
+    /**
+     * Bump the day x package x recipient aggregate (UPSERT needs SQLite 3.24, newer than minSdk)
+     */
+    private void addToBucket(SQLiteDatabase db, int day, String packageName,
+                             String recipient, int wordCount) {
+        SQLiteStatement update = db.compileStatement(
+            "UPDATE " + TABLE_BUCKETS + " SET "
+            + COL_MESSAGE_COUNT + " = " + COL_MESSAGE_COUNT + " + 1, "
+            + COL_WORD_COUNT + " = " + COL_WORD_COUNT + " + ? "
+            + "WHERE " + COL_DAY + " = ? AND " + COL_PACKAGE + " = ? AND " + COL_RECIPIENT + " = ?");
+        update.bindLong(1, wordCount);
+        update.bindLong(2, day);
+        update.bindString(3, packageName);
+        update.bindString(4, recipient);
+        int updated = update.executeUpdateDelete();
+        update.close();
+
+        if (updated == 0) {
+            ContentValues bucket = new ContentValues();
+            bucket.put(COL_DAY, day);
+            bucket.put(COL_PACKAGE, packageName);
+            bucket.put(COL_RECIPIENT, recipient);
+            bucket.put(COL_MESSAGE_COUNT, 1);
+            bucket.put(COL_WORD_COUNT, wordCount);
+            db.insert(TABLE_BUCKETS, null, bucket);
+        }
+    }
+
+    /**
+     * Extend the conversation's latest session if the message falls within the
+     * idle gap of it, otherwise open a new one; returns the session id.
+     * Out-of-order timestamps stretch the session at either end.
+     */
+    private long attachToSession(SQLiteDatabase db, long timestamp, String packageName,
+                                 String recipient, int wordCount) {
+        Cursor cursor = db.rawQuery(
+            "SELECT " + COL_ID + ", " + COL_START_TIME + ", " + COL_END_TIME
+            + " FROM " + TABLE_SESSIONS
+            + " WHERE " + COL_PACKAGE + " = ? AND " + COL_RECIPIENT + " = ?"
+            + " ORDER BY " + COL_END_TIME + " DESC LIMIT 1",
+            new String[]{packageName, recipient});
+        long sessionId = -1;
+        if (cursor.moveToFirst()
+                && timestamp >= cursor.getLong(1) - SESSION_IDLE_GAP_MS
+                && timestamp <= cursor.getLong(2) + SESSION_IDLE_GAP_MS) {
+            sessionId = cursor.getLong(0);
+        }
+        cursor.close();
+
+        if (sessionId == -1) {
+            return insertSession(db, packageName, recipient, timestamp, timestamp, 1, wordCount);
+        }
+
+        SQLiteStatement update = db.compileStatement(
+            "UPDATE " + TABLE_SESSIONS + " SET "
+            + COL_START_TIME + " = MIN(" + COL_START_TIME + ", ?), "
+            + COL_END_TIME + " = MAX(" + COL_END_TIME + ", ?), "
+            + COL_MESSAGE_COUNT + " = " + COL_MESSAGE_COUNT + " + 1, "
+            + COL_WORD_COUNT + " = " + COL_WORD_COUNT + " + ? "
+            + "WHERE " + COL_ID + " = ?");
+        update.bindLong(1, timestamp);
+        update.bindLong(2, timestamp);
+        update.bindLong(3, wordCount);
+        update.bindLong(4, sessionId);
+        update.executeUpdateDelete();
+        update.close();
+        return sessionId;
+    }
+
+    private long insertSession(SQLiteDatabase db, String packageName, String recipient,
+                               long start, long end, int messages, long words) {
+        ContentValues session = new ContentValues();
+        session.put(COL_PACKAGE, packageName);
+        session.put(COL_RECIPIENT, recipient);
+        session.put(COL_START_TIME, start);
+        session.put(COL_END_TIME, end);
+        session.put(COL_MESSAGE_COUNT, messages);
+        session.put(COL_WORD_COUNT, words);
+        return db.insert(TABLE_SESSIONS, null, session);
+    }
+
+    /**
+     * Local midnight ending the day that contains timestamp
+     */
+    private static long startOfNextDay(long timestamp) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(timestamp);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        calendar.add(Calendar.DAY_OF_MONTH, 1);
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * Local calendar day of a timestamp, counted from 1970-01-01
+     */
+    public static int epochDay(long timestamp) {
+        long local = timestamp + TimeZone.getDefault().getOffset(timestamp);
+        return (int) Math.floorDiv(local, 86_400_000L);
     }
 
     /**
      * Get all logs for history view
      */
     public List<LogEntry> getAllLogs() {
+        return getLogs(Long.MAX_VALUE, SaayaContract.Logs.DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * One page of logs older than beforeId, newest first (keyset paging on the rowid)
+     */
+    public List<LogEntry> getLogs(long beforeId, int limit) {
+        List<LogEntry> recent = getRecentLogs().page(beforeId, limit);
+        if (recent != null) {
+            return recent;
+        }
+
         List<LogEntry> logs = new ArrayList<>();
         
         try {
-            SQLiteDatabase db = this.getReadableDatabase();
+            Cursor cursor = queryLogs(SaayaContract.Logs.DEFAULT_PROJECTION, beforeId, limit);
+
+            while (cursor.moveToNext()) {
+                LogEntry entry = new LogEntry(
+                    cursor.getInt(0),
+                    cursor.getLong(1),
+                    cursor.getString(2),
+                    cursor.getString(3),
+                    cursor.getString(4)
+                );
+                logs.add(entry);
+            }
+            cursor.close();
+        } catch (Exception e) {
+            Log.e(TAG, "Error getting logs: " + e.getMessage());
+        }
+
+        return logs;
+    }
+
+    /**
+     * Projected cursor over one page of logs; used by SaayaProvider.
+     * Served from the recent-rows buffer when the page lies inside it.
+     */
+    public Cursor queryLogs(String[] projection, long beforeId, int limit) {
+        SaayaTrace.begin(SaayaTrace.QUERY_LOGS);
+        try {
+            for (String column : projection) {
+                if (!LOG_COLUMNS.contains(column)) {
+                    throw new IllegalArgumentException("Unknown column: " + column);
+                }
+            }
 
-            String query = "SELECT * FROM " + TABLE_LOGS 
-                         + " ORDER BY " + COL_TIMESTAMP + " DESC LIMIT 100";
+            Cursor recent = getRecentLogs().cursor(projection, beforeId, limit);
+            if (recent != null) {
+                return recent;
+            }
 
-            Cursor cursor = db.rawQuery(query, null);
+            return executed(logs.page(database(), projection, beforeId, limit));
+        } finally {
+            SaayaTrace.end();
+        }
+    }
 
-            if (cursor != null && cursor.moveToFirst()) {
-                do {
-                    LogEntry entry = new LogEntry(
-                        cursor.getInt(0),
-                        cursor.getLong(1),
-                        cursor.getString(2),
-                        cursor.getString(3),
-                        cursor.getString(4)
-                    );
-                    logs.add(entry);
-                } while (cursor.moveToNext());
-                cursor.close();
+    /**
+     * SQLite runs a query lazily on the first cursor move; while tracing, run
+     * it here so its cost lands inside the caller's section
+     */
+    private static Cursor executed(Cursor cursor) {
+        if (SaayaTrace.ENABLED) {
+            cursor.getCount();
+        }
+        return cursor;
+    }
+
+    /**
+     * Most recently active conversations, newest first
+     */
+    public List<Session> getRecentSessions(int limit) {
+        List<Session> sessions = new ArrayList<>();
+
+        try {
+            Cursor cursor = querySessions(limit);
+            while (cursor.moveToNext()) {
+                sessions.add(new Session(
+                    cursor.getLong(0),
+                    cursor.getString(1),
+                    cursor.getString(2),
+                    cursor.getLong(3),
+                    cursor.getLong(4),
+                    cursor.getInt(5),
+                    cursor.getLong(6)
+                ));
             }
+            cursor.close();
         } catch (Exception e) {
-            Log.e(TAG, "Error getting all logs: " + e.getMessage());
+            Log.e(TAG, "Error getting sessions: " + e.getMessage());
+        }
+
+        return sessions;
+    }
+
+    /**
+     * Messages of one session in the order they were typed
+     */
+    public List<LogEntry> getSessionLogs(long sessionId) {
+        List<LogEntry> logs = new ArrayList<>();
+
+        try {
+            Cursor cursor = querySessionLogs(sessionId);
+            while (cursor.moveToNext()) {
+                logs.add(new LogEntry(
+                    cursor.getInt(0),
+                    cursor.getLong(1),
+                    cursor.getString(2),
+                    cursor.getString(3),
+                    cursor.getString(4)
+                ));
+            }
+            cursor.close();
+        } catch (Exception e) {
+            Log.e(TAG, "Error getting session logs: " + e.getMessage());
         }
 
         return logs;
     }
 
     /**
-     * ANALYTICS: Get top 5 most used apps
+     * Cursor in SaayaContract.Sessions.PROJECTION order; walks idx_sessions_end
      */
-    public List<AppUsage> getTopUsedApps() {
-        List<AppUsage> apps = new ArrayList<>();
-        SQLiteDatabase db = this.getReadableDatabase();
+    public Cursor querySessions(int limit) {
+        SaayaTrace.begin(SaayaTrace.QUERY_SESSIONS);
+        try {
+            return executed(database().query(TABLE_SESSIONS, SaayaContract.Sessions.PROJECTION,
+                    null, null, null, null, COL_END_TIME + " DESC", String.valueOf(limit)));
+        } finally {
+            SaayaTrace.end();
+        }
+    }
+
+    /**
+     * Cursor in SaayaContract.Logs.DEFAULT_PROJECTION order; walks idx_logs_session,
+     * and with partitioning only in the months the session spans
+     */
+    public Cursor querySessionLogs(long sessionId) {
+        SaayaTrace.begin(SaayaTrace.QUERY_SESSION_LOGS);
+        try {
+            SQLiteDatabase db = database();
+            String[] args = new String[]{String.valueOf(sessionId)};
+            long startTime = Long.MIN_VALUE;
+            long endTime = Long.MAX_VALUE;
+            Cursor span = db.query(TABLE_SESSIONS, new String[]{COL_START_TIME, COL_END_TIME},
+                    COL_ID + " = ?", args, null, null, null);
+            if (span.moveToFirst()) {
+                startTime = span.getLong(0);
+                endTime = span.getLong(1);
+            }
+            span.close();
 
-        String query = "SELECT " + COL_PACKAGE + ", COUNT(*) as count "
-                     + "FROM " + TABLE_LOGS
-                     + " GROUP BY " + COL_PACKAGE
-                     + " ORDER BY count DESC LIMIT 5";
+            return executed(logs.queryRange(db, SaayaContract.Logs.DEFAULT_PROJECTION,
+                    COL_SESSION_ID + " = ?", args, startTime, endTime,
+                    COL_TIMESTAMP + ", " + COL_ID));
+        } finally {
+            SaayaTrace.end();
+        }
+    }
 
-        Cursor cursor = db.rawQuery(query, null);
+    /**
+     * Append one chat message; returns its id, or -1 on failure
+     */
+    public long saveChatMessage(long timestamp, boolean isUser, String text) {
+        ContentValues values = new ContentValues();
+        values.put(COL_TIMESTAMP, timestamp);
+        values.put(COL_IS_USER, isUser ? 1 : 0);
+        values.put(COL_TEXT, text != null ? text : "");
 
-        if (cursor.moveToFirst()) {
-            do {
-                String packageName = cursor.getString(0);
-                int count = cursor.getInt(1);
-                
-                // Get friendly name
-                String appName = getFriendlyAppName(packageName);
-                apps.add(new AppUsage(appName, count));
-            } while (cursor.moveToNext());
+        try {
+            return database().insert(TABLE_CHAT, null, values);
+        } catch (Exception e) {
+            Log.e(TAG, "Error saving chat message: " + e.getMessage());
+            return -1;
         }
+    }
 
-        cursor.close();
-        return apps;
+    /**
+     * Cursor in SaayaContract.Chat.PROJECTION order over chat messages older
+     * than beforeId, newest first (keyset paging on the rowid)
+     */
+    public Cursor queryChatMessages(long beforeId, int limit) {
+        return database().query(TABLE_CHAT, CHAT_COLUMNS,
+                COL_ID + " < ?", new String[]{String.valueOf(beforeId)},
+                null, null, COL_ID + " DESC", String.valueOf(limit));
+    }
+
+    /**
+     * Chat messages newer than afterId, oldest first
+     */
+    public Cursor queryChatMessagesAfter(long afterId, int limit) {
+        return database().query(TABLE_CHAT, CHAT_COLUMNS,
+                COL_ID + " > ?", new String[]{String.valueOf(afterId)},
+                null, null, COL_ID, String.valueOf(limit));
+    }
+
+    /**
+     * ANALYTICS: Get top 5 most used apps
+     */
+    public List<AppUsage> getTopUsedApps() {
+        return getTopApps(Integer.MIN_VALUE, Integer.MAX_VALUE, 5);
     }
 
     /**
      * ANALYTICS: Get personality profile
      */
     public Map<String, String> getPersonalityProfile() {
-        Map<String, String> profile = new HashMap<>();
-        
-        // Set defaults first
-        profile.put("totalMessages", "0");
-        profile.put("writingStyle", "N/A");
-        profile.put("avgWords", "0");
-        profile.put("peakTime", "N/A");
-        profile.put("favApp", "N/A");
-        
+        SaayaTrace.begin(SaayaTrace.QUERY_PROFILE);
+        try {
+            Map<String, String> profile = new HashMap<>();
+
+            // Set defaults first
+            profile.put("totalMessages", "0");
+            profile.put("writingStyle", "N/A");
+            profile.put("avgWords", "0");
+            profile.put("peakTime", "N/A");
+            profile.put("favApp", "N/A");
+
+            try {
+                SQLiteDatabase db = database();
+
+                // Total messages
+                profile.put("totalMessages", String.valueOf(getTotalCount()));
+
+                // Average word count (exact, from the ingest-time index)
+                TextIndex index = getTextIndex();
+                long textMessages = index.getTextMessages();
+                if (textMessages > 0) {
+                    int avgWords = (int) (index.getTotalWords() / textMessages);
+                    profile.put("writingStyle", avgWords > 10 ? "Detailed" : "Short");
+                    profile.put("avgWords", String.valueOf(avgWords));
+                }
+
+                // Peak activity hour
+                Cursor peakCursor = db.rawQuery(
+                    "SELECT strftime('%H', " + COL_TIMESTAMP + "/1000, 'unixepoch', 'localtime') as hour, "
+                    + "COUNT(*) as count FROM " + TABLE_LOGS
+                    + " GROUP BY hour ORDER BY count DESC LIMIT 1", null);
+                if (peakCursor != null && peakCursor.moveToFirst()) {
+                    String hour = peakCursor.getString(0);
+                    profile.put("peakTime", hour + ":00");
+                    peakCursor.close();
+                }
+
+                // Favorite app
+                List<AppUsage> favApps = getTopApps(Integer.MIN_VALUE, Integer.MAX_VALUE, 1);
+                if (!favApps.isEmpty()) {
+                    profile.put("favApp", favApps.get(0).appName);
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Error getting personality profile: " + e.getMessage());
+            }
+
+            return profile;
+        } finally {
+            SaayaTrace.end();
+        }
+    }
+
+    /**
+     * ANALYTICS: Range statistics between two local days (inclusive), busiest first.
+     * NONE and APP are answered from Fenwick trees in O(apps * log days); RECIPIENT
+     * reads the daily buckets in range. Neither touches shadow_logs.
+     */
+    public List<RangeStat> getStats(int fromDay, int toDay, GroupBy groupBy) {
+        SaayaTrace.begin(statsSection(groupBy));
         try {
-            SQLiteDatabase db = this.getReadableDatabase();
-
-            // Total messages
-            Cursor countCursor = db.rawQuery(
-                "SELECT COUNT(*) FROM " + TABLE_LOGS, null);
-            if (countCursor != null && countCursor.moveToFirst()) {
-                profile.put("totalMessages", String.valueOf(countCursor.getInt(0)));
-                countCursor.close();
-            }
-
-            // Average word count
-            Cursor avgCursor = db.rawQuery(
-                "SELECT AVG(LENGTH(" + COL_MESSAGE + ") - LENGTH(REPLACE(" + COL_MESSAGE + ", ' ', '')) + 1) "
-                + "FROM " + TABLE_LOGS + " WHERE " + COL_MESSAGE + " != ''", null);
-            if (avgCursor != null && avgCursor.moveToFirst()) {
-                int avgWords = avgCursor.getInt(0);
-                profile.put("writingStyle", avgWords > 10 ? "Detailed" : "Short");
-                profile.put("avgWords", String.valueOf(avgWords));
-                avgCursor.close();
-            }
-
-            // Peak activity hour
-            Cursor peakCursor = db.rawQuery(
-                "SELECT strftime('%H', " + COL_TIMESTAMP + "/1000, 'unixepoch', 'localtime') as hour, "
-                + "COUNT(*) as count FROM " + TABLE_LOGS
-                + " GROUP BY hour ORDER BY count DESC LIMIT 1", null);
-            if (peakCursor != null && peakCursor.moveToFirst()) {
-                String hour = peakCursor.getString(0);
-                profile.put("peakTime", hour + ":00");
-                peakCursor.close();
-            }
-
-            // Favorite app
-            Cursor favCursor = db.rawQuery(
-                "SELECT " + COL_PACKAGE + ", COUNT(*) as count FROM " + TABLE_LOGS
-                + " GROUP BY " + COL_PACKAGE + " ORDER BY count DESC LIMIT 1", null);
-            if (favCursor != null && favCursor.moveToFirst()) {
-                String favApp = getFriendlyAppName(favCursor.getString(0));
-                profile.put("favApp", favApp);
-                favCursor.close();
+            List<RangeStat> stats;
+
+            switch (groupBy) {
+                case APP:
+                    stats = getBucketIndex().byPackage(fromDay, toDay);
+                    break;
+
+                case RECIPIENT:
+                    stats = getRecipientStats(fromDay, toDay);
+                    break;
+
+                default:
+                    BucketIndex index = getBucketIndex();
+                    stats = new ArrayList<>();
+                    stats.add(new RangeStat("all", "All apps",
+                            index.messages(fromDay, toDay), index.words(fromDay, toDay)));
+                    return stats;
+            }
+
+            Collections.sort(stats, new Comparator<RangeStat>() {
+                @Override
+                public int compare(RangeStat a, RangeStat b) {
+                    return Long.compare(b.messageCount, a.messageCount);
+                }
+            });
+            return stats;
+        } finally {
+            SaayaTrace.end();
+        }
+    }
+
+    private static String statsSection(GroupBy groupBy) {
+        switch (groupBy) {
+            case APP:
+                return SaayaTrace.QUERY_STATS_APP;
+            case RECIPIENT:
+                return SaayaTrace.QUERY_STATS_RECIPIENT;
+            default:
+                return SaayaTrace.QUERY_STATS_TOTAL;
+        }
+    }
+
+    private List<RangeStat> getRecipientStats(int fromDay, int toDay) {
+        List<RangeStat> stats = new ArrayList<>();
+
+        try {
+            SQLiteDatabase db = database();
+            Cursor cursor = db.rawQuery(
+                "SELECT " + COL_RECIPIENT + ", SUM(" + COL_MESSAGE_COUNT + "), SUM(" + COL_WORD_COUNT + ")"
+                + " FROM " + TABLE_BUCKETS + " WHERE " + COL_DAY + " BETWEEN ? AND ?"
+                + " GROUP BY " + COL_RECIPIENT,
+                new String[]{String.valueOf(fromDay), String.valueOf(toDay)});
+            while (cursor.moveToNext()) {
+                String recipient = cursor.getString(0);
+                stats.add(new RangeStat(recipient, recipient, cursor.getLong(1), cursor.getLong(2)));
             }
+            cursor.close();
         } catch (Exception e) {
-            Log.e(TAG, "Error getting personality profile: " + e.getMessage());
+            Log.e(TAG, "Error getting recipient stats: " + e.getMessage());
         }
 
-        return profile;
+        return stats;
+    }
+
+    /**
+     * ANALYTICS: Messages saved between two local days (inclusive)
+     */
+    public int getMessageCount(int fromDay, int toDay) {
+        return (int) getBucketIndex().messages(fromDay, toDay);
+    }
+
+    /**
+     * ANALYTICS: Top apps between two local days (inclusive)
+     */
+    public List<AppUsage> getTopApps(int fromDay, int toDay, int limit) {
+        List<AppUsage> apps = new ArrayList<>();
+        for (RangeStat stat : getStats(fromDay, toDay, GroupBy.APP)) {
+            if (apps.size() == limit) {
+                break;
+            }
+            apps.add(new AppUsage(stat.label, (int) stat.messageCount));
+        }
+        return apps;
     }
 
     /**
-     * Get friendly app name from package
+     * ANALYTICS: Most messaged recipients between two local days (inclusive)
      */
-    private String getFriendlyAppName(String packageName) {
-        if (packageName.contains("whatsapp")) return "WhatsApp";
-        if (packageName.contains("messenger") || packageName.contains("orca")) return "Messenger";
-        if (packageName.contains("instagram")) return "Instagram";
-        if (packageName.contains("twitter")) return "Twitter";
-        if (packageName.contains("snapchat")) return "Snapchat";
-        return packageName;
+    public List<ContactUsage> getTopRecipients(int fromDay, int toDay, int limit) {
+        List<ContactUsage> contacts = new ArrayList<>();
+        for (RangeStat stat : getStats(fromDay, toDay, GroupBy.RECIPIENT)) {
+            if (contacts.size() == limit) {
+                break;
+            }
+            if (!"Unknown".equals(stat.key)) {
+                contacts.add(new ContactUsage(stat.label, (int) stat.messageCount));
+            }
+        }
+        return contacts;
+    }
+
+    /**
+     * ANALYTICS (approximate): Most used apps over all history, from a Count-Min
+     * sketch. Counts never undercount and overcount by at most 0.13% of all
+     * messages with 98% confidence; at most 20 apps. O(1) in the number of rows.
+     */
+    public List<AppUsage> getApproxTopApps(int limit) {
+        List<AppUsage> apps = new ArrayList<>();
+        for (TermCount app : getSketchIndex().topApps(limit)) {
+            apps.add(new AppUsage(appLabels.getLabel(app.term), app.count));
+        }
+        return apps;
+    }
+
+    /**
+     * ANALYTICS (approximate): Most messaged recipients over all history, with
+     * the same bounds as getApproxTopApps
+     */
+    public List<ContactUsage> getApproxTopRecipients(int limit) {
+        List<ContactUsage> contacts = new ArrayList<>();
+        // One spare in case "Unknown" is among the leaders
+        for (TermCount contact : getSketchIndex().topRecipients(limit + 1)) {
+            if (contacts.size() == limit) {
+                break;
+            }
+            if (!"Unknown".equals(contact.term)) {
+                contacts.add(new ContactUsage(contact.term, contact.count));
+            }
+        }
+        return contacts;
+    }
+
+    /**
+     * ANALYTICS (approximate): Distinct recipients between two local days
+     * (inclusive), from per-day HyperLogLogs; about 3.3% standard error, near
+     * exact for a few hundred recipients. Only the last 35 days are kept, so
+     * older days in the range are not counted.
+     */
+    public long getApproxDistinctRecipients(int fromDay, int toDay) {
+        return getSketchIndex().distinctRecipients(fromDay, toDay);
+    }
+
+    /**
+     * ANALYTICS (approximate): Distinct recipients over all history, same error
+     */
+    public long getApproxDistinctRecipients() {
+        return getSketchIndex().distinctRecipients();
+    }
+
+    /**
+     * ANALYTICS: Most used words, highest count first
+     */
+    public List<TermCount> getTopWords(int limit) {
+        return getTextIndex().getTopWords(limit);
+    }
+
+    /**
+     * ANALYTICS: Most used two-word phrases, highest count first
+     */
+    public List<TermCount> getTopPhrases(int limit) {
+        return getTextIndex().getTopPhrases(limit);
+    }
+
+    /**
+     * ANALYTICS: Exact word totals
+     */
+    public Map<String, String> getWordStats() {
+        TextIndex index = getTextIndex();
+        Map<String, String> stats = new HashMap<>();
+        stats.put("totalWords", String.valueOf(index.getTotalWords()));
+        stats.put("textMessages", String.valueOf(index.getTextMessages()));
+        stats.put("distinctWords", String.valueOf(index.getDistinctWords()));
+        return stats;
     }
 
     /**
      * Get total count
      */
     public int getTotalCount() {
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + TABLE_LOGS, null);
-        int count = 0;
-        
-        if (cursor.moveToFirst()) {
-            count = cursor.getInt(0);
-        }
-        
-        cursor.close();
-        return count;
+        return (int) getBucketIndex().messages(Integer.MIN_VALUE, Integer.MAX_VALUE);
     }
 
     /**
      * Clear all logs
      */
     public void clearAllLogs() {
-        SQLiteDatabase db = this.getWritableDatabase();
-        db.delete(TABLE_LOGS, null, null);
+        SQLiteDatabase db = database();
+        boolean successful = false;
+        db.beginTransactionNonExclusive();
+        long ticket = issuedTickets.incrementAndGet();
+        try {
+            logs.clear(db);
+            db.delete(TABLE_BUCKETS, null, null);
+            db.delete(TABLE_SESSIONS, null, null);
+            db.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            // Queued behind every earlier write, so none of them lands after the clear
+            endWrite(db, ticket, successful, new Runnable() {
+                @Override
+                public void run() {
+                    clearIndexes();
+                }
+            });
+        }
         Log.d(TAG, "All logs cleared");
     }
 
+    /**
+     * Empty every index after clearAllLogs has committed; publish thread only
+     */
+    private void clearIndexes() {
+        // An index that is not loaded would reload its stale file
+        TextIndex index = textIndex;
+        if (index != null) {
+            index.clear();
+        } else {
+            new File(filesDir, indexFileName).delete();
+        }
+        BucketIndex buckets = bucketIndex;
+        if (buckets != null) {
+            buckets.clear();
+        }
+        RecentLogBuffer recent = recentLogs;
+        if (recent != null) {
+            recent.clear();
+        }
+        SketchIndex sketches = sketchIndex;
+        if (sketches != null) {
+            sketches.clear();
+        } else {
+            new File(filesDir, sketchFileName).delete();
+        }
+    }
+
+    /**
+     * Apply BuildConfig.LOG_RETENTION_MONTHS: keep the current UTC month and
+     * that many before it. Does nothing when retention is off (0).
+     */
+    public void applyRetention(long now) {
+        if (BuildConfig.LOG_RETENTION_MONTHS <= 0) {
+            return;
+        }
+        expireLogsBefore(LogPartitions.monthsBefore(now, BuildConfig.LOG_RETENTION_MONTHS));
+    }
+
+    /**
+     * Drop history older than the UTC month containing cutoff, along with
+     * its daily buckets and finished sessions. Rounding down to a month lets
+     * a partitioned table drop whole tables instead of deleting row by row.
+     * Buckets are local days, so the day holding the cutoff is recounted
+     * from the rows that survive and bucket totals keep matching the table.
+     * The word index and the all-time sketches keep their lifetime counts.
+     */
+    void expireLogsBefore(long cutoff) {
+        final long monthStart = LogPartitions.monthStartOf(cutoff);
+        int boundaryDay = epochDay(monthStart);
+        SQLiteDatabase db = database();
+        boolean successful = false;
+        db.beginTransactionNonExclusive();
+        long ticket = issuedTickets.incrementAndGet();
+        try {
+            logs.expireBefore(db, monthStart);
+            db.delete(TABLE_BUCKETS, COL_DAY + " <= ?",
+                    new String[]{String.valueOf(boundaryDay)});
+            db.execSQL("INSERT INTO " + TABLE_BUCKETS + " SELECT ?, "
+                    + COL_PACKAGE + ", IFNULL(" + COL_RECIPIENT + ", 'Unknown'), COUNT(*), SUM(" + COL_WORD_COUNT + ") "
+                    + "FROM " + TABLE_LOGS + " WHERE " + COL_TIMESTAMP + " >= ? AND " + COL_TIMESTAMP + " < ? "
+                    + "GROUP BY 2, 3", new Object[]{boundaryDay, monthStart, startOfNextDay(monthStart)});
+            db.delete(TABLE_SESSIONS, COL_END_TIME + " < ?",
+                    new String[]{String.valueOf(monthStart)});
+            db.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            endWrite(db, ticket, successful, new Runnable() {
+                @Override
+                public void run() {
+                    // Rebuilt from the committed bucket table on next use
+                    bucketIndex = null;
+                    RecentLogBuffer recent = recentLogs;
+                    if (recent != null) {
+                        recent.removeOlderThan(monthStart);
+                    }
+                }
+            });
+        }
+        Log.d(TAG, "Logs expired before " + monthStart);
+    }
+
     /**
      * LogEntry - Data model
      */
@@ -333,4 +1527,112 @@ public class SaayaMemoryDB extends SQLiteOpenHelper {
             this.count = count;
         }
     }
+
+    /**
+     * ContactUsage - Analytics model
+     */
+    public static class ContactUsage {
+        public final String recipientName;
+        public final int count;
+
+        public ContactUsage(String recipientName, int count) {
+            this.recipientName = recipientName;
+            this.count = count;
+        }
+    }
+
+    /**
+     * RangeStat - Range analytics model
+     */
+    public static class RangeStat {
+        public final String key;
+        public final String label;
+        public final long messageCount;
+        public final long wordCount;
+
+        public RangeStat(String key, String label, long messageCount, long wordCount) {
+            this.key = key;
+            this.label = label;
+            this.messageCount = messageCount;
+            this.wordCount = wordCount;
+        }
+    }
+
+    /**
+     * Session - One conversation burst
+     */
+    public static class Session {
+        public final long id;
+        public final String packageName;
+        public final String recipientName;
+        public final long startTime;
+        public final long endTime;
+        public final int messageCount;
+        public final long wordCount;
+
+        public Session(long id, String packageName, String recipientName, long startTime,
+                       long endTime, int messageCount, long wordCount) {
+            this.id = id;
+            this.packageName = packageName;
+            this.recipientName = recipientName;
+            this.startTime = startTime;
+            this.endTime = endTime;
+            this.messageCount = messageCount;
+            this.wordCount = wordCount;
+        }
+    }
+
+    /**
+     * ChatMessage - Assistant chat model; id is -1 until the message is stored
+     */
+    public static class ChatMessage {
+        public final long id;
+        public final long timestamp;
+        public final boolean isUser;
+        public final String text;
+
+        public ChatMessage(long id, long timestamp, boolean isUser, String text) {
+            this.id = id;
+            this.timestamp = timestamp;
+            this.isUser = isUser;
+            this.text = text;
+        }
+    }
+
+    /**
+     * A row saved inside a write transaction, held until the commit publishes it
+     */
+    private static final class SavedLog {
+        final long id;
+        final long timestamp;
+        final String packageName;
+        final String recipient;
+        final String message;
+        final int wordCount;
+        final long sessionId;
+
+        SavedLog(long id, long timestamp, String packageName, String recipient,
+                 String message, int wordCount, long sessionId) {
+            this.id = id;
+            this.timestamp = timestamp;
+            this.packageName = packageName;
+            this.recipient = recipient;
+            this.message = message;
+            this.wordCount = wordCount;
+            this.sessionId = sessionId;
+        }
+    }
+
+    /**
+     * TermCount - Vocabulary model
+     */
+    public static class TermCount {
+        public final String term;
+        public final int count;
+
+        public TermCount(String term, int count) {
+            this.term = term;
+            this.count = count;
+        }
+    }
 }
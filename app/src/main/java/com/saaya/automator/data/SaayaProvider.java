@@ -0,0 +1,230 @@
+package com.saaya.automator.data;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.saaya.automator.core.CacheManager;
+import com.saaya.automator.core.ChatQueryEngine;
+import com.saaya.automator.core.SaayaService;
+import com.saaya.automator.core.SaayaTrace;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SaayaProvider - Read API over SaayaMemoryDB for the UI process
+ * Runs in the same process as SaayaService, so the database and its indexes
+ * are only ever opened there. Logs come back as paged, projected cursors;
+ * analytics as small snapshot cursors. Read-only apart from the chat
+ * transcript, which chat_query appends to as it answers; log writes stay in
+ * the service.
+ */
+public class SaayaProvider extends ContentProvider {
+
+    private static final String TAG = "SaayaProvider";
+
+    private static final int LOGS = 1;
+    private static final int PROFILE = 2;
+    private static final int STATS = 3;
+    private static final int SESSIONS = 4;
+    private static final int SESSION_LOGS = 5;
+    private static final int CHAT = 6;
+
+    private static final UriMatcher MATCHER = new UriMatcher(UriMatcher.NO_MATCH);
+
+    static {
+        MATCHER.addURI(SaayaContract.AUTHORITY, "logs", LOGS);
+        MATCHER.addURI(SaayaContract.AUTHORITY, "profile", PROFILE);
+        MATCHER.addURI(SaayaContract.AUTHORITY, "stats", STATS);
+        MATCHER.addURI(SaayaContract.AUTHORITY, "sessions", SESSIONS);
+        MATCHER.addURI(SaayaContract.AUTHORITY, "sessions/#/logs", SESSION_LOGS);
+        MATCHER.addURI(SaayaContract.AUTHORITY, "chat", CHAT);
+    }
+
+    private SaayaMemoryDB memoryDB;
+    private ChatQueryEngine queryEngine;
+
+    @Override
+    public boolean onCreate() {
+        // Opening the database is deferred to the first query
+        memoryDB = SaayaMemoryDB.getInstance(getContext());
+        queryEngine = new ChatQueryEngine(memoryDB);
+        return true;
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection,
+                        String[] selectionArgs, String sortOrder) {
+        switch (MATCHER.match(uri)) {
+            case LOGS:
+                return memoryDB.queryLogs(
+                    projection != null ? projection : SaayaContract.Logs.DEFAULT_PROJECTION,
+                    longParam(uri, SaayaContract.PARAM_BEFORE_ID, Long.MAX_VALUE),
+                    (int) longParam(uri, SaayaContract.PARAM_LIMIT, SaayaContract.Logs.DEFAULT_PAGE_SIZE));
+
+            case PROFILE:
+                return profileCursor(memoryDB.getPersonalityProfile());
+
+            case STATS:
+                return statsCursor(memoryDB.getStats(
+                    (int) longParam(uri, SaayaContract.PARAM_FROM_DAY, Integer.MIN_VALUE),
+                    (int) longParam(uri, SaayaContract.PARAM_TO_DAY, Integer.MAX_VALUE),
+                    groupParam(uri)));
+
+            case SESSIONS:
+                return memoryDB.querySessions(
+                    (int) longParam(uri, SaayaContract.PARAM_LIMIT, SaayaContract.Sessions.DEFAULT_PAGE_SIZE));
+
+            case SESSION_LOGS:
+                return memoryDB.querySessionLogs(Long.parseLong(uri.getPathSegments().get(1)));
+
+            case CHAT: {
+                int limit = (int) longParam(uri, SaayaContract.PARAM_LIMIT, SaayaContract.Chat.DEFAULT_PAGE_SIZE);
+                long afterId = longParam(uri, SaayaContract.PARAM_AFTER_ID, -1);
+                return afterId >= 0
+                        ? memoryDB.queryChatMessagesAfter(afterId, limit)
+                        : memoryDB.queryChatMessages(
+                            longParam(uri, SaayaContract.PARAM_BEFORE_ID, Long.MAX_VALUE), limit);
+            }
+
+            default:
+                throw new IllegalArgumentException("Unknown URI: " + uri);
+        }
+    }
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        Bundle result = new Bundle();
+        recordCallerUsage(extras);
+
+        if (SaayaContract.METHOD_CHAT_QUERY.equals(method)) {
+            // Store the question and the reply so the conversation survives restarts
+            long askedAt = System.currentTimeMillis();
+            long questionId = memoryDB.saveChatMessage(askedAt, true, arg);
+            String reply;
+            SaayaTrace.begin(SaayaTrace.CHAT_QUERY);
+            try {
+                reply = queryEngine.answer(arg);
+            } finally {
+                SaayaTrace.end();
+            }
+            long answeredAt = System.currentTimeMillis();
+            long replyId = memoryDB.saveChatMessage(answeredAt, false, reply);
+            result.putString(SaayaContract.EXTRA_REPLY, reply);
+            result.putLongArray(SaayaContract.EXTRA_MESSAGE_IDS, new long[]{questionId, replyId});
+            result.putLongArray(SaayaContract.EXTRA_TIMESTAMPS, new long[]{askedAt, answeredAt});
+        } else if (SaayaContract.METHOD_SERVICE_STATUS.equals(method)) {
+            SaayaService service = SaayaService.getInstance();
+            result.putBoolean(SaayaContract.EXTRA_ACTIVE, service != null && service.isServiceActive());
+        } else if (SaayaContract.METHOD_DIAGNOSTICS.equals(method)) {
+            SaayaService service = SaayaService.getInstance();
+            if (service != null) {
+                Map<String, String> diagnostics = service.getDiagnostics();
+                result.putStringArray(SaayaContract.EXTRA_KEYS,
+                        diagnostics.keySet().toArray(new String[0]));
+                result.putStringArray(SaayaContract.EXTRA_VALUES,
+                        diagnostics.values().toArray(new String[0]));
+            }
+        } else {
+            Log.w(TAG, "Unknown call: " + method);
+            return super.call(method, arg, extras);
+        }
+
+        return result;
+    }
+
+    /**
+     * Keep the UI process's cache usage, so diagnostics cover both processes
+     */
+    private void recordCallerUsage(Bundle extras) {
+        if (extras == null) {
+            return;
+        }
+        String process = extras.getString(SaayaContract.EXTRA_CALLER_PROCESS);
+        String[] keys = extras.getStringArray(SaayaContract.EXTRA_CALLER_CACHE_KEYS);
+        String[] values = extras.getStringArray(SaayaContract.EXTRA_CALLER_CACHE_VALUES);
+        if (process == null || keys == null || values == null) {
+            return;
+        }
+        Map<String, String> usage = new LinkedHashMap<>();
+        for (int i = 0; i < keys.length && i < values.length; i++) {
+            usage.put(keys[i], values[i]);
+        }
+        CacheManager.getInstance(getContext()).putRemoteUsage(process, usage);
+    }
+
+    private static Cursor profileCursor(Map<String, String> profile) {
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+            SaayaContract.Profile.KEY, SaayaContract.Profile.VALUE}, profile.size());
+        for (Map.Entry<String, String> entry : profile.entrySet()) {
+            cursor.addRow(new Object[]{entry.getKey(), entry.getValue()});
+        }
+        return cursor;
+    }
+
+    private static Cursor statsCursor(List<SaayaMemoryDB.RangeStat> stats) {
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+            SaayaContract.Stats.KEY, SaayaContract.Stats.LABEL,
+            SaayaContract.Stats.MESSAGE_COUNT, SaayaContract.Stats.WORD_COUNT}, stats.size());
+        for (SaayaMemoryDB.RangeStat stat : stats) {
+            cursor.addRow(new Object[]{stat.key, stat.label, stat.messageCount, stat.wordCount});
+        }
+        return cursor;
+    }
+
+    private static long longParam(Uri uri, String name, long fallback) {
+        String value = uri.getQueryParameter(name);
+        if (value == null) {
+            return fallback;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    /**
+     * Grouping named by the URI; an unknown name falls back to no grouping
+     * instead of failing the query
+     */
+    private static SaayaMemoryDB.GroupBy groupParam(Uri uri) {
+        String value = uri.getQueryParameter(SaayaContract.PARAM_GROUP_BY);
+        if (value == null) {
+            return SaayaMemoryDB.GroupBy.NONE;
+        }
+        try {
+            return SaayaMemoryDB.GroupBy.valueOf(value);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Unknown grouping: " + value);
+            return SaayaMemoryDB.GroupBy.NONE;
+        }
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        return null;
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        throw new UnsupportedOperationException("Read-only provider");
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("Read-only provider");
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("Read-only provider");
+    }
+}
@@ -0,0 +1,323 @@
+package com.saaya.automator.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * SketchIndex - Approximate recipient and app analytics in fixed memory
+ * Fed by the publish thread after each write commits, like TextIndex. Keeps a
+ * HyperLogLog of recipients per local day for the last DAYS days plus one for
+ * all time, and a CountMinTopK each for recipients and apps. About 100 KB in
+ * memory however large the history grows, and every read is O(1) in the
+ * number of rows. Persisted the same way as TextIndex: rows saved after the
+ * last flush are replayed from the table on load.
+ */
+final class SketchIndex {
+
+    private static final String TAG = "SketchIndex";
+    static final String FILE_NAME = "saaya_sketches.bin";
+    private static final int MAGIC = 0x53534B54; // "SSKT"
+    private static final int FORMAT_VERSION = 1;
+
+    // 2^10 registers: 3.3% standard error on distinct counts
+    private static final int HLL_PRECISION = 10;
+    // Days of per-day recipient sketches; covers the 30-day dashboard range
+    static final int DAYS = 35;
+    // e / 2048 = 0.13% of all messages overcount, with 98% confidence at depth 4
+    private static final int CM_WIDTH = 2048;
+    private static final int CM_DEPTH = 4;
+    private static final int TOP_K = 20;
+    private static final int EMPTY_DAY = Integer.MIN_VALUE;
+
+    // Rewrite the file after this many ingested rows
+    private static final int FLUSH_EVERY = 32;
+
+    // FNV-1a 64-bit, finished with the murmur3 mixer for well-spread high bits
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final AtomicFile file;
+    private final HyperLogLog allRecipients = new HyperLogLog(HLL_PRECISION);
+    private final HyperLogLog[] dayRecipients = new HyperLogLog[DAYS];
+    // Local day held by each ring slot
+    private final int[] ringDays = new int[DAYS];
+    private final CountMinTopK recipients = new CountMinTopK(CM_WIDTH, CM_DEPTH, TOP_K);
+    private final CountMinTopK apps = new CountMinTopK(CM_WIDTH, CM_DEPTH, TOP_K);
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private long lastRowId;
+    private int unflushed;
+
+    SketchIndex(File file) {
+        this.file = new AtomicFile(file);
+        for (int i = 0; i < DAYS; i++) {
+            dayRecipients[i] = new HyperLogLog(HLL_PRECISION);
+        }
+        Arrays.fill(ringDays, EMPTY_DAY);
+    }
+
+    /**
+     * Load the persisted sketches and replay any rows they have not seen yet.
+     * Runs before the index is published, so nothing else can see it yet.
+     * maxId is the highest id currently in the table.
+     */
+    void open(SQLiteDatabase db, String table, String idColumn, String timestampColumn,
+              String packageColumn, String recipientColumn, long maxId) {
+        if (!load()) {
+            reset();
+        }
+
+        // Table was cleared or replaced behind our back
+        if (lastRowId > maxId) {
+            reset();
+        }
+
+        Cursor cursor = db.rawQuery(
+            "SELECT " + idColumn + ", " + timestampColumn + ", " + packageColumn + ", " + recipientColumn
+            + " FROM " + table + " WHERE " + idColumn + " > ? ORDER BY " + idColumn,
+            new String[]{String.valueOf(lastRowId)});
+        int caughtUp = 0;
+        while (cursor.moveToNext()) {
+            add(cursor.getLong(0), cursor.getLong(1), cursor.getString(2), cursor.getString(3));
+            caughtUp++;
+        }
+        cursor.close();
+
+        if (caughtUp > 0) {
+            Log.d(TAG, "Sketched " + caughtUp + " unseen rows");
+            flush();
+        }
+    }
+
+    /**
+     * Count a committed row; rows at or below the last one seen are already counted
+     */
+    void add(long rowId, long timestamp, String packageName, String recipient) {
+        lock.writeLock().lock();
+        try {
+            if (rowId <= lastRowId) {
+                return;
+            }
+            // Rows from before recipients were always set may have none
+            if (recipient != null) {
+                long recipientHash = hash(recipient);
+                allRecipients.add(recipientHash);
+                HyperLogLog day = daySketch(SaayaMemoryDB.epochDay(timestamp));
+                if (day != null) {
+                    day.add(recipientHash);
+                }
+                recipients.add(recipient, recipientHash);
+            }
+            apps.add(packageName, hash(packageName));
+
+            lastRowId = Math.max(lastRowId, rowId);
+            unflushed++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rewrite the file once enough rows have been ingested; called after
+     * each commit, so a batch costs one flush
+     */
+    void flushIfDue() {
+        if (unflushed >= FLUSH_EVERY) {
+            flush();
+        }
+    }
+
+    /**
+     * Estimated distinct recipients between two local days (inclusive); only
+     * the last DAYS days are kept, so older days in the range add nothing
+     */
+    long distinctRecipients(int fromDay, int toDay) {
+        HyperLogLog union = new HyperLogLog(HLL_PRECISION);
+        lock.readLock().lock();
+        try {
+            for (int i = 0; i < DAYS; i++) {
+                if (ringDays[i] != EMPTY_DAY && ringDays[i] >= fromDay && ringDays[i] <= toDay) {
+                    union.merge(dayRecipients[i]);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return union.estimate();
+    }
+
+    /**
+     * Estimated distinct recipients over all history
+     */
+    long distinctRecipients() {
+        lock.readLock().lock();
+        try {
+            return allRecipients.estimate();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    List<SaayaMemoryDB.TermCount> topRecipients(int limit) {
+        lock.readLock().lock();
+        try {
+            return recipients.top(limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    List<SaayaMemoryDB.TermCount> topApps(int limit) {
+        lock.readLock().lock();
+        try {
+            return apps.top(limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Fixed whatever has been added: the registers and counters, heap keys aside
+     */
+    long approximateBytes() {
+        return ((DAYS + 1L) << HLL_PRECISION) + 2L * CM_WIDTH * CM_DEPTH * 4;
+    }
+
+    /**
+     * Drop everything, including the persisted file
+     */
+    void clear() {
+        lock.writeLock().lock();
+        try {
+            reset();
+            file.delete();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rewrite the file; only ever called under the database's index lock, so
+     * the read lock is enough
+     */
+    void flush() {
+        FileOutputStream stream = null;
+        lock.readLock().lock();
+        try {
+            stream = file.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(lastRowId);
+            allRecipients.writeTo(out);
+            for (int i = 0; i < DAYS; i++) {
+                out.writeInt(ringDays[i]);
+                dayRecipients[i].writeTo(out);
+            }
+            recipients.writeTo(out);
+            apps.writeTo(out);
+            out.flush();
+            file.finishWrite(stream);
+            unflushed = 0;
+        } catch (IOException e) {
+            Log.e(TAG, "Error saving sketches: " + e.getMessage());
+            if (stream != null) {
+                file.failWrite(stream);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Sketch for a local day, recycling the ring slot of a day that has aged
+     * out; null for a day older than the ring
+     */
+    private HyperLogLog daySketch(int day) {
+        int slot = Math.floorMod(day, DAYS);
+        if (ringDays[slot] == day) {
+            return dayRecipients[slot];
+        }
+        if (ringDays[slot] != EMPTY_DAY && ringDays[slot] > day) {
+            return null;
+        }
+        ringDays[slot] = day;
+        dayRecipients[slot].clear();
+        return dayRecipients[slot];
+    }
+
+    private boolean load() {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(file.openRead()));
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                return false;
+            }
+            lastRowId = in.readLong();
+            allRecipients.readFrom(in);
+            for (int i = 0; i < DAYS; i++) {
+                ringDays[i] = in.readInt();
+                dayRecipients[i].readFrom(in);
+            }
+            recipients.readFrom(in);
+            apps.readFrom(in);
+            return true;
+        } catch (FileNotFoundException e) {
+            return false;
+        } catch (IOException e) {
+            Log.e(TAG, "Sketch file unreadable, rebuilding: " + e.getMessage());
+            return false;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private void reset() {
+        allRecipients.clear();
+        for (int i = 0; i < DAYS; i++) {
+            dayRecipients[i].clear();
+        }
+        Arrays.fill(ringDays, EMPTY_DAY);
+        recipients.clear();
+        apps.clear();
+        lastRowId = 0;
+        unflushed = 0;
+    }
+
+    private static long hash(String value) {
+        long h = FNV_OFFSET;
+        for (int i = 0; i < value.length(); i++) {
+            h = (h ^ value.charAt(i)) * FNV_PRIME;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static void closeQuietly(DataInputStream in) {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
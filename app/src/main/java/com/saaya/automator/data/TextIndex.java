@@ -0,0 +1,270 @@
+package com.saaya.automator.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * TextIndex - Word statistics maintained on the write path
+ * Feeds every saved message through MessageTokenizer into a word and a phrase
+ * VocabularyIndex plus running totals. Persisted to a compact binary file; rows
+ * saved after the last flush are re-tokenized on load, so a crash loses nothing.
+ * Rows are ingested only once committed, by the database's publish thread
+ * under its index lock; readers share a read lock, and the periodic file
+ * write also runs under the read lock so queries are not held up.
+ */
+final class TextIndex implements MessageTokenizer.TokenSink {
+
+    private static final String TAG = "TextIndex";
+    static final String FILE_NAME = "saaya_vocab.bin";
+    private static final int MAGIC = 0x53564F43; // "SVOC"
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int MAX_WORDS = 1 << 17;
+    private static final int MAX_PHRASES = 1 << 16;
+
+    // Rewrite the file after this many ingested rows
+    private static final int FLUSH_EVERY = 32;
+
+    private final AtomicFile file;
+    private final VocabularyIndex words = new VocabularyIndex(MAX_WORDS);
+    private final VocabularyIndex phrases = new VocabularyIndex(MAX_PHRASES);
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private long totalWords;
+    private long textMessages;
+    private long lastRowId;
+    private int unflushed;
+
+    TextIndex(File file) {
+        this.file = new AtomicFile(file);
+    }
+
+    /**
+     * Load the persisted index and tokenize any rows it has not seen yet.
+     * Runs before the index is published, so nothing else can see it yet.
+     * maxId is the highest id currently in the table.
+     */
+    void open(SQLiteDatabase db, String table, String idColumn, String messageColumn, long maxId) {
+        if (!load()) {
+            reset();
+        }
+
+        // Table was cleared or replaced behind our back
+        if (lastRowId > maxId) {
+            reset();
+        }
+
+        Cursor cursor = db.rawQuery(
+            "SELECT " + idColumn + ", " + messageColumn + " FROM " + table
+            + " WHERE " + idColumn + " > ? ORDER BY " + idColumn,
+            new String[]{String.valueOf(lastRowId)});
+        int caughtUp = 0;
+        while (cursor.moveToNext()) {
+            ingest(cursor.getLong(0), cursor.getString(1));
+            caughtUp++;
+        }
+        cursor.close();
+
+        if (caughtUp > 0) {
+            Log.d(TAG, "Indexed " + caughtUp + " unseen rows");
+            flush();
+        }
+    }
+
+    /**
+     * Add a committed row to the index; returns its word count. A row at or
+     * below the last one seen was already caught up from the table, so it is
+     * skipped and counts 0.
+     */
+    int ingest(long rowId, String messageText) {
+        lock.writeLock().lock();
+        try {
+            if (rowId <= lastRowId) {
+                return 0;
+            }
+            int wordCount = MessageTokenizer.tokenize(messageText, this);
+            if (wordCount > 0) {
+                totalWords += wordCount;
+                textMessages++;
+            }
+            lastRowId = Math.max(lastRowId, rowId);
+            unflushed++;
+            return wordCount;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rewrite the file once enough rows have been ingested; called after
+     * each commit, so a batch costs one flush and the file never records a
+     * row the table does not have
+     */
+    void flushIfDue() {
+        if (unflushed >= FLUSH_EVERY) {
+            flush();
+        }
+    }
+
+    @Override
+    public void onWord(long wordId, CharSequence text, int start, int end) {
+        words.add(wordId, text, start, end);
+    }
+
+    @Override
+    public void onPhrase(long phraseId, CharSequence text, int start, int end) {
+        phrases.add(phraseId, text, start, end);
+    }
+
+    long getTotalWords() {
+        lock.readLock().lock();
+        try {
+            return totalWords;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    long getTextMessages() {
+        lock.readLock().lock();
+        try {
+            return textMessages;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int getDistinctWords() {
+        lock.readLock().lock();
+        try {
+            return words.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    long approximateBytes() {
+        lock.readLock().lock();
+        try {
+            return words.approximateBytes() + phrases.approximateBytes();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    List<SaayaMemoryDB.TermCount> getTopWords(int limit) {
+        lock.readLock().lock();
+        try {
+            return words.top(limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    List<SaayaMemoryDB.TermCount> getTopPhrases(int limit) {
+        lock.readLock().lock();
+        try {
+            return phrases.top(limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Drop everything, including the persisted file
+     */
+    void clear() {
+        lock.writeLock().lock();
+        try {
+            reset();
+            file.delete();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rewrite the file; only ever called under the database's index lock, so
+     * the read lock is enough
+     */
+    void flush() {
+        FileOutputStream stream = null;
+        lock.readLock().lock();
+        try {
+            stream = file.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(lastRowId);
+            out.writeLong(totalWords);
+            out.writeLong(textMessages);
+            words.writeTo(out);
+            phrases.writeTo(out);
+            out.flush();
+            file.finishWrite(stream);
+            unflushed = 0;
+        } catch (IOException e) {
+            Log.e(TAG, "Error saving vocabulary: " + e.getMessage());
+            if (stream != null) {
+                file.failWrite(stream);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private boolean load() {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(file.openRead()));
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                return false;
+            }
+            lastRowId = in.readLong();
+            totalWords = in.readLong();
+            textMessages = in.readLong();
+            words.readFrom(in);
+            phrases.readFrom(in);
+            return true;
+        } catch (FileNotFoundException e) {
+            return false;
+        } catch (IOException e) {
+            Log.e(TAG, "Vocabulary file unreadable, rebuilding: " + e.getMessage());
+            return false;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private void reset() {
+        words.clear();
+        phrases.clear();
+        totalWords = 0;
+        textMessages = 0;
+        lastRowId = 0;
+        unflushed = 0;
+    }
+
+    private static void closeQuietly(DataInputStream in) {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.saaya.automator.data;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * VocabularyIndex - Open-addressing hash of token id -> count
+ * Keys and counts live in parallel primitive arrays (linear probing, no boxing).
+ * A small top-K table is kept sorted on every increment, so "most used" queries
+ * never walk the whole vocabulary.
+ */
+final class VocabularyIndex {
+
+    private static final long EMPTY = 0L;
+    private static final float LOAD_FACTOR = 0.6f;
+    private static final int TOP_CAPACITY = 20;
+
+    private final int maxTerms;
+
+    private long[] keys;
+    private int[] counts;
+    private String[] terms;
+    private int size;
+    // Characters across all stored terms, for the memory estimate
+    private long termChars;
+    private int resizeThreshold;
+    private long rejected;
+
+    // Top-K by count, sorted descending
+    private final long[] topKeys = new long[TOP_CAPACITY];
+    private final int[] topCounts = new int[TOP_CAPACITY];
+    private int topSize;
+
+    /**
+     * @param maxTerms new tokens beyond this many distinct terms are not admitted
+     */
+    VocabularyIndex(int maxTerms) {
+        this.maxTerms = maxTerms;
+        allocate(256);
+    }
+
+    /**
+     * Count one occurrence of a token; the term text is only built the first time it is seen
+     */
+    void add(long tokenId, CharSequence text, int start, int end) {
+        int slot = slotFor(tokenId);
+
+        if (keys[slot] == EMPTY) {
+            if (size >= maxTerms) {
+                rejected++;
+                return;
+            }
+            if (size + 1 > resizeThreshold) {
+                rehash(keys.length << 1);
+                slot = slotFor(tokenId);
+            }
+            keys[slot] = tokenId;
+            terms[slot] = MessageTokenizer.normalizedTerm(text, start, end);
+            termChars += terms[slot].length();
+            size++;
+        }
+
+        offerTop(tokenId, ++counts[slot]);
+    }
+
+    int size() {
+        return size;
+    }
+
+    long rejectedCount() {
+        return rejected;
+    }
+
+    /**
+     * Estimated bytes held: the slot arrays plus about 40 bytes and two bytes
+     * a char for each term string
+     */
+    long approximateBytes() {
+        return (long) keys.length * (8 + 4 + 4) + 40L * size + 2 * termChars;
+    }
+
+    /**
+     * Most frequent terms, at most TOP_CAPACITY
+     */
+    List<SaayaMemoryDB.TermCount> top(int limit) {
+        int n = Math.min(limit, topSize);
+        List<SaayaMemoryDB.TermCount> result = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            String term = terms[slotFor(topKeys[i])];
+            result.add(new SaayaMemoryDB.TermCount(term, topCounts[i]));
+        }
+        return result;
+    }
+
+    void clear() {
+        allocate(256);
+        termChars = 0;
+        rejected = 0;
+        topSize = 0;
+    }
+
+    /**
+     * Compact form: entry count, then (id, count, term) per occupied slot
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(size);
+        out.writeLong(rejected);
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != EMPTY) {
+                out.writeLong(keys[slot]);
+                out.writeInt(counts[slot]);
+                out.writeUTF(terms[slot]);
+            }
+        }
+    }
+
+    void readFrom(DataInputStream in) throws IOException {
+        int entries = in.readInt();
+        long rejectedTokens = in.readLong();
+
+        int capacity = 256;
+        while (entries + 1 > capacity * LOAD_FACTOR) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+        termChars = 0;
+        rejected = rejectedTokens;
+        topSize = 0;
+
+        for (int i = 0; i < entries; i++) {
+            long key = in.readLong();
+            int count = in.readInt();
+            String term = in.readUTF();
+
+            int slot = slotFor(key);
+            if (keys[slot] == EMPTY) {
+                size++;
+            }
+            keys[slot] = key;
+            counts[slot] = count;
+            terms[slot] = term;
+            termChars += term.length();
+            offerTopLoaded(key, count);
+        }
+    }
+
+    private int slotFor(long key) {
+        int mask = keys.length - 1;
+        int slot = spread(key) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int spread(long key) {
+        long h = key ^ (key >>> 32);
+        return (int) (h ^ (h >>> 16));
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        counts = new int[capacity];
+        terms = new String[capacity];
+        size = 0;
+        resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldCounts = counts;
+        String[] oldTerms = terms;
+        int oldSize = size;
+
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = slotFor(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                counts[slot] = oldCounts[i];
+                terms[slot] = oldTerms[i];
+            }
+        }
+        size = oldSize;
+    }
+
+    /**
+     * Counts only grow by one, so a key enters the table exactly when it
+     * overtakes the current minimum.
+     */
+    private void offerTop(long key, int count) {
+        int pos = -1;
+        for (int i = 0; i < topSize; i++) {
+            if (topKeys[i] == key) {
+                pos = i;
+                break;
+            }
+        }
+
+        if (pos < 0) {
+            if (topSize < TOP_CAPACITY) {
+                pos = topSize++;
+            } else if (count > topCounts[topSize - 1]) {
+                pos = topSize - 1;
+            } else {
+                return;
+            }
+            topKeys[pos] = key;
+        }
+
+        topCounts[pos] = count;
+        bubbleUp(pos);
+    }
+
+    /**
+     * Loading sees arbitrary counts, so replace the minimum when beaten
+     */
+    private void offerTopLoaded(long key, int count) {
+        int pos;
+        if (topSize < TOP_CAPACITY) {
+            pos = topSize++;
+        } else if (count > topCounts[topSize - 1]) {
+            pos = topSize - 1;
+        } else {
+            return;
+        }
+        topKeys[pos] = key;
+        topCounts[pos] = count;
+        bubbleUp(pos);
+    }
+
+    private void bubbleUp(int pos) {
+        while (pos > 0 && topCounts[pos - 1] < topCounts[pos]) {
+            long key = topKeys[pos];
+            int count = topCounts[pos];
+            topKeys[pos] = topKeys[pos - 1];
+            topCounts[pos] = topCounts[pos - 1];
+            topKeys[pos - 1] = key;
+            topCounts[pos - 1] = count;
+            pos--;
+        }
+    }
+}
@@ -11,17 +11,20 @@ import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.saaya.automator.R;
+import com.saaya.automator.core.SaayaTrace;
+import com.saaya.automator.data.SaayaMemoryDB;
 
 import java.util.List;
 
 /**
  * ChatAdapter - RecyclerView adapter for chat messages
+ * Backed by MainActivity's window list, which it never copies.
  */
 public class ChatAdapter extends RecyclerView.Adapter<ChatAdapter.MessageViewHolder> {
 
-    private List<MainActivity.ChatMessage> messages;
+    private final List<SaayaMemoryDB.ChatMessage> messages;
 
-    public ChatAdapter(List<MainActivity.ChatMessage> messages) {
+    public ChatAdapter(List<SaayaMemoryDB.ChatMessage> messages) {
         this.messages = messages;
     }
 
@@ -35,8 +38,12 @@ public class ChatAdapter extends RecyclerView.Adapter<ChatAdapter.MessageViewHol
 
     @Override
     public void onBindViewHolder(@NonNull MessageViewHolder holder, int position) {
-        MainActivity.ChatMessage message = messages.get(position);
-        holder.bind(message);
+        SaayaTrace.begin(SaayaTrace.BIND_CHAT);
+        try {
+            holder.bind(messages.get(position));
+        } finally {
+            SaayaTrace.end();
+        }
     }
 
     @Override
@@ -54,7 +61,7 @@ public class ChatAdapter extends RecyclerView.Adapter<ChatAdapter.MessageViewHol
             container = itemView.findViewById(R.id.messageContainer);
         }
 
-        void bind(MainActivity.ChatMessage message) {
+        void bind(SaayaMemoryDB.ChatMessage message) {
             if (message == null || message.text == null) {
                 return;
             }
@@ -0,0 +1,230 @@
+package com.saaya.automator.ui;
+
+import android.content.Context;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import com.saaya.automator.data.SaayaMemoryDB;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * DashboardSnapshot - Last dashboard contents, persisted for instant paint
+ * StatsActivity renders this straight from disk in onCreate, then refreshes
+ * from the provider in the background and saves the result back. The file is
+ * a few kilobytes whatever the size of the database.
+ */
+final class DashboardSnapshot {
+
+    private static final String TAG = "DashboardSnapshot";
+    private static final String FILE_NAME = "dashboard_snapshot.bin";
+    private static final int MAGIC = 0x53445348; // "SDSH"
+    private static final int FORMAT_VERSION = 1;
+
+    // Far above what save() writes (a page of logs, one of sessions); a
+    // count or length past these means the file is corrupt, and is rejected
+    // before anything is allocated for it
+    private static final int MAX_ENTRIES = 1024;
+    private static final int MAX_STRING_BYTES = 256 * 1024;
+    private static final long MAX_FILE_BYTES = 1024 * 1024;
+
+    final Map<String, String> profile;
+    // Default range chip (last 7 days); any of these may be null
+    final SaayaMemoryDB.RangeStat rangeTotal;
+    final SaayaMemoryDB.RangeStat rangeTopApp;
+    final SaayaMemoryDB.RangeStat rangeTopContact;
+    final List<SaayaMemoryDB.Session> sessions;
+    final List<SaayaMemoryDB.LogEntry> logs;
+
+    DashboardSnapshot(Map<String, String> profile,
+                      SaayaMemoryDB.RangeStat rangeTotal,
+                      SaayaMemoryDB.RangeStat rangeTopApp,
+                      SaayaMemoryDB.RangeStat rangeTopContact,
+                      List<SaayaMemoryDB.Session> sessions,
+                      List<SaayaMemoryDB.LogEntry> logs) {
+        this.profile = profile;
+        this.rangeTotal = rangeTotal;
+        this.rangeTopApp = rangeTopApp;
+        this.rangeTopContact = rangeTopContact;
+        this.sessions = sessions;
+        this.logs = logs;
+    }
+
+    /**
+     * Saved snapshot, or null if there is none or it cannot be read
+     */
+    static DashboardSnapshot load(Context context) {
+        AtomicFile file = file(context);
+        DataInputStream in = null;
+        try {
+            // Bounds what a corrupt file can make us allocate, on top of the per-field limits
+            long length = file.getBaseFile().length();
+            if (length > MAX_FILE_BYTES) {
+                Log.e(TAG, "Snapshot too large, ignoring: " + length + " bytes");
+                return null;
+            }
+            in = new DataInputStream(new BufferedInputStream(file.openRead()));
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+
+            Map<String, String> profile = new LinkedHashMap<>();
+            for (int i = readCount(in); i > 0; i--) {
+                profile.put(readString(in), readString(in));
+            }
+            SaayaMemoryDB.RangeStat total = readRangeStat(in);
+            SaayaMemoryDB.RangeStat topApp = readRangeStat(in);
+            SaayaMemoryDB.RangeStat topContact = readRangeStat(in);
+
+            int sessionCount = readCount(in);
+            List<SaayaMemoryDB.Session> sessions = new ArrayList<>(sessionCount);
+            for (int i = 0; i < sessionCount; i++) {
+                sessions.add(new SaayaMemoryDB.Session(in.readLong(), readString(in), readString(in),
+                        in.readLong(), in.readLong(), in.readInt(), in.readLong()));
+            }
+
+            int logCount = readCount(in);
+            List<SaayaMemoryDB.LogEntry> logs = new ArrayList<>(logCount);
+            for (int i = 0; i < logCount; i++) {
+                logs.add(new SaayaMemoryDB.LogEntry(in.readInt(), in.readLong(),
+                        readString(in), readString(in), readString(in)));
+            }
+
+            return new DashboardSnapshot(profile, total, topApp, topContact, sessions, logs);
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Snapshot unreadable, ignoring: " + e.getMessage());
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Replace the saved snapshot; call from a background thread
+     */
+    void save(Context context) {
+        AtomicFile file = file(context);
+        FileOutputStream stream = null;
+        try {
+            stream = file.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+
+            out.writeInt(profile.size());
+            for (Map.Entry<String, String> entry : profile.entrySet()) {
+                writeString(out, entry.getKey());
+                writeString(out, entry.getValue());
+            }
+            writeRangeStat(out, rangeTotal);
+            writeRangeStat(out, rangeTopApp);
+            writeRangeStat(out, rangeTopContact);
+
+            out.writeInt(sessions.size());
+            for (SaayaMemoryDB.Session session : sessions) {
+                out.writeLong(session.id);
+                writeString(out, session.packageName);
+                writeString(out, session.recipientName);
+                out.writeLong(session.startTime);
+                out.writeLong(session.endTime);
+                out.writeInt(session.messageCount);
+                out.writeLong(session.wordCount);
+            }
+
+            out.writeInt(logs.size());
+            for (SaayaMemoryDB.LogEntry log : logs) {
+                out.writeInt(log.id);
+                out.writeLong(log.timestamp);
+                writeString(out, log.packageName);
+                writeString(out, log.recipientName);
+                writeString(out, log.messageText);
+            }
+
+            out.flush();
+            file.finishWrite(stream);
+        } catch (IOException e) {
+            Log.e(TAG, "Error saving snapshot: " + e.getMessage());
+            if (stream != null) {
+                file.failWrite(stream);
+            }
+        }
+    }
+
+    private static AtomicFile file(Context context) {
+        return new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+    }
+
+    private static SaayaMemoryDB.RangeStat readRangeStat(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        return new SaayaMemoryDB.RangeStat(readString(in), readString(in), in.readLong(), in.readLong());
+    }
+
+    private static void writeRangeStat(DataOutputStream out, SaayaMemoryDB.RangeStat stat) throws IOException {
+        out.writeBoolean(stat != null);
+        if (stat != null) {
+            writeString(out, stat.key);
+            writeString(out, stat.label);
+            out.writeLong(stat.messageCount);
+            out.writeLong(stat.wordCount);
+        }
+    }
+
+    /**
+     * Length-prefixed UTF-8, -1 for null; unlike writeUTF it has no 64 KB limit
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static int readCount(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > MAX_ENTRIES) {
+            throw new IOException("Entry count out of range: " + count);
+        }
+        return count;
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0 || length > MAX_STRING_BYTES) {
+            throw new IOException("String length out of range: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void closeQuietly(DataInputStream in) {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
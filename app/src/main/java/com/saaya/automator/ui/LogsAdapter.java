@@ -3,18 +3,23 @@ package com.saaya.automator.ui;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.saaya.automator.R;
+import com.saaya.automator.core.SaayaTrace;
+import com.saaya.automator.data.AppRegistry;
 import com.saaya.automator.data.SaayaMemoryDB;
 
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.Objects;
 
 /**
  * LogsAdapter - RecyclerView adapter for history logs
@@ -23,10 +28,47 @@ public class LogsAdapter extends RecyclerView.Adapter<LogsAdapter.LogViewHolder>
 
     private List<SaayaMemoryDB.LogEntry> logs;
     private SimpleDateFormat dateFormat;
+    private final AppRegistry appRegistry;
 
-    public LogsAdapter(List<SaayaMemoryDB.LogEntry> logs) {
+    public LogsAdapter(List<SaayaMemoryDB.LogEntry> logs, AppRegistry appRegistry) {
         this.logs = logs;
         this.dateFormat = new SimpleDateFormat("MMM dd, hh:mm a", Locale.getDefault());
+        this.appRegistry = appRegistry;
+    }
+
+    /**
+     * Swap in a fresh list, rebinding only the rows that actually changed
+     */
+    public void update(final List<SaayaMemoryDB.LogEntry> newLogs) {
+        final List<SaayaMemoryDB.LogEntry> oldLogs = logs;
+        DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldLogs.size();
+            }
+
+            @Override
+            public int getNewListSize() {
+                return newLogs.size();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                return oldLogs.get(oldPosition).id == newLogs.get(newPosition).id;
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                SaayaMemoryDB.LogEntry a = oldLogs.get(oldPosition);
+                SaayaMemoryDB.LogEntry b = newLogs.get(newPosition);
+                return a.timestamp == b.timestamp
+                        && Objects.equals(a.packageName, b.packageName)
+                        && Objects.equals(a.recipientName, b.recipientName)
+                        && Objects.equals(a.messageText, b.messageText);
+            }
+        });
+        logs = newLogs;
+        diff.dispatchUpdatesTo(this);
     }
 
     @NonNull
@@ -39,8 +81,12 @@ public class LogsAdapter extends RecyclerView.Adapter<LogsAdapter.LogViewHolder>
 
     @Override
     public void onBindViewHolder(@NonNull LogViewHolder holder, int position) {
-        SaayaMemoryDB.LogEntry log = logs.get(position);
-        holder.bind(log, dateFormat);
+        SaayaTrace.begin(SaayaTrace.BIND_LOG);
+        try {
+            holder.bind(logs.get(position), dateFormat, appRegistry);
+        } finally {
+            SaayaTrace.end();
+        }
     }
 
     @Override
@@ -48,24 +94,35 @@ public class LogsAdapter extends RecyclerView.Adapter<LogsAdapter.LogViewHolder>
         return logs.size();
     }
 
-    static class LogViewHolder extends RecyclerView.ViewHolder {
+    static class LogViewHolder extends RecyclerView.ViewHolder implements AppRegistry.Listener {
         TextView tvTime, tvApp, tvRecipient, tvMessage;
+        ImageView ivIcon;
+        String boundPackage;
 
         LogViewHolder(@NonNull View itemView) {
             super(itemView);
+            ivIcon = itemView.findViewById(R.id.ivLogIcon);
             tvTime = itemView.findViewById(R.id.tvLogTime);
             tvApp = itemView.findViewById(R.id.tvLogApp);
             tvRecipient = itemView.findViewById(R.id.tvLogRecipient);
             tvMessage = itemView.findViewById(R.id.tvLogMessage);
         }
 
-        void bind(SaayaMemoryDB.LogEntry log, SimpleDateFormat dateFormat) {
+        void bind(SaayaMemoryDB.LogEntry log, SimpleDateFormat dateFormat, AppRegistry appRegistry) {
             if (log == null) {
                 return;
             }
             
             tvTime.setText(dateFormat.format(new Date(log.timestamp)));
-            tvApp.setText(getFriendlyAppName(log.packageName));
+            boundPackage = log.packageName;
+            AppRegistry.AppInfo app = appRegistry.peek(log.packageName);
+            if (app != null) {
+                showApp(app);
+            } else {
+                tvApp.setText(appRegistry.peekLabel(log.packageName));
+                ivIcon.setVisibility(View.GONE);
+                appRegistry.load(log.packageName, this);
+            }
             tvRecipient.setText("To: " + (log.recipientName != null ? log.recipientName : "Unknown"));
             
             String messagePreview = "";
@@ -76,11 +133,22 @@ public class LogsAdapter extends RecyclerView.Adapter<LogsAdapter.LogViewHolder>
             tvMessage.setText(messagePreview);
         }
 
-        private String getFriendlyAppName(String packageName) {
-            if (packageName.contains("whatsapp")) return "WhatsApp";
-            if (packageName.contains("messenger")) return "Messenger";
-            if (packageName.contains("instagram")) return "Instagram";
-            return packageName;
+        @Override
+        public void onAppLoaded(String packageName, AppRegistry.AppInfo info) {
+            // The holder may have been rebound to another row meanwhile
+            if (packageName.equals(boundPackage)) {
+                showApp(info);
+            }
+        }
+
+        private void showApp(AppRegistry.AppInfo app) {
+            tvApp.setText(app.label);
+            if (app.icon != null) {
+                ivIcon.setImageBitmap(app.icon);
+                ivIcon.setVisibility(View.VISIBLE);
+            } else {
+                ivIcon.setVisibility(View.GONE);
+            }
         }
     }
 }
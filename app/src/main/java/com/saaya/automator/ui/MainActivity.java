@@ -17,14 +17,26 @@ import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 import com.saaya.automator.R;
-import com.saaya.automator.core.SaayaService;
+import com.saaya.automator.data.SaayaClient;
+import com.saaya.automator.data.SaayaContract;
+import com.saaya.automator.data.SaayaMemoryDB;
 
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * MainActivity - Chat Interface with Professional White Theme
+ *
+ * The conversation is stored by SaayaProvider as it answers. Only a window of
+ * at most MAX_WINDOW messages is held here: pages load by id as the user
+ * scrolls towards either end, and the far end is trimmed to stay within the
+ * window. Messages that arrive together are added with one notify and one scroll.
  */
 public class MainActivity extends AppCompatActivity {
 
@@ -33,8 +45,25 @@ public class MainActivity extends AppCompatActivity {
     private EditText inputField;
     private FloatingActionButton sendButton;
     private TextView tvGreeting;
+    private static final int PAGE_SIZE = SaayaContract.Chat.DEFAULT_PAGE_SIZE;
+    private static final int MAX_WINDOW = 3 * PAGE_SIZE;
+    // Start loading the next page this many rows before the end of the window
+    private static final int PREFETCH_DISTANCE = 10;
+
     private ChatAdapter chatAdapter;
-    private List<ChatMessage> messages;
+    private LinearLayoutManager layoutManager;
+    private final List<SaayaMemoryDB.ChatMessage> messages = new ArrayList<>();
+    // Live messages waiting for the next coalesced insert
+    private final List<SaayaMemoryDB.ChatMessage> pendingMessages = new ArrayList<>();
+    // Transient messages (id -1) that left the window at its newest end; they
+    // cannot be paged back in, so they return once the window reaches the end
+    private final List<SaayaMemoryDB.ChatMessage> parkedMessages = new ArrayList<>();
+    private boolean flushPosted;
+    private boolean loading;
+    private boolean hasOlder;
+    private boolean hasNewer;
+    private SaayaClient client;
+    private final ExecutorService queryExecutor = Executors.newSingleThreadExecutor();
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -70,14 +99,23 @@ public class MainActivity extends AppCompatActivity {
 
             // Setup RecyclerView
             Log.d(TAG, "Setting up RecyclerView...");
-            messages = new ArrayList<>();
             chatAdapter = new ChatAdapter(messages);
-            recyclerView.setLayoutManager(new LinearLayoutManager(this));
+            layoutManager = new LinearLayoutManager(this);
+            layoutManager.setStackFromEnd(true);
+            recyclerView.setLayoutManager(layoutManager);
             recyclerView.setAdapter(chatAdapter);
+            recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+                @Override
+                public void onScrolled(RecyclerView view, int dx, int dy) {
+                    loadMoreIfNeeded();
+                }
+            });
             Log.d(TAG, "RecyclerView setup complete");
 
-            // Add welcome message
-            addBotMessage("Welcome back! I'm Saaya, your personal productivity assistant. How can I help you today?");
+            client = new SaayaClient(this);
+
+            // Latest page of the stored conversation; welcome only if it is empty
+            loadLatest();
 
             // Send button click
             sendButton.setOnClickListener(new View.OnClickListener() {
@@ -123,54 +161,370 @@ public class MainActivity extends AppCompatActivity {
             return;
         }
 
-        // Add user message
-        messages.add(new ChatMessage(messageText, true));
-        chatAdapter.notifyItemInserted(messages.size() - 1);
-        recyclerView.smoothScrollToPosition(messages.size() - 1);
+        // Scrolled back through history: bring the latest page back first
+        if (hasNewer) {
+            loadLatest();
+        }
+
+        // Add user message; it gets its stored id when the reply comes back
+        SaayaMemoryDB.ChatMessage question = new SaayaMemoryDB.ChatMessage(
+                -1, System.currentTimeMillis(), true, messageText);
+        postMessage(question);
 
         // Clear input
         inputField.setText("");
 
-        // Simulate bot reply
-        simulateBotReply(messageText);
+        // Bot reply
+        replyTo(question);
     }
 
-    private void simulateBotReply(String userMessage) {
-        // Delayed response
-        recyclerView.postDelayed(new Runnable() {
+    /**
+     * Answer on the query executor and post the reply as soon as it is ready
+     */
+    private void replyTo(final SaayaMemoryDB.ChatMessage question) {
+        queryExecutor.execute(new Runnable() {
             @Override
             public void run() {
-                String botReply;
-                
-                if (userMessage.toLowerCase().contains("stats") || 
-                    userMessage.toLowerCase().contains("dashboard")) {
-                    botReply = "Dashboard dekhne ke liye upar right corner mein menu icon pe tap karen.";
-                } else if (userMessage.toLowerCase().contains("kaise") || 
-                          userMessage.toLowerCase().contains("how")) {
-                    botReply = "Main accessibility service use karke aapki messages observe karta hoon aur patterns seekhta hoon. Privacy first - passwords kabhi nahi record hote.";
-                } else {
-                    botReply = "Note kar liya sir! Main aapki writing style samajh raha hoon.";
-                }
-                
-                addBotMessage(botReply);
+                final List<SaayaMemoryDB.ChatMessage> exchange = client.askChat(question.text);
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (isFinishing()) {
+                            return;
+                        }
+                        if (exchange == null) {
+                            addBotMessage("Abhi jawab nahi de saka, thodi der baad try karen.");
+                            return;
+                        }
+                        replaceMessage(question, exchange.get(0));
+                        postMessage(exchange.get(1));
+                    }
+                });
             }
-        }, 800);
+        });
     }
 
+    /**
+     * Transient assistant message; shown but not stored
+     */
     private void addBotMessage(String text) {
-        messages.add(new ChatMessage(text, false));
-        chatAdapter.notifyItemInserted(messages.size() - 1);
-        recyclerView.smoothScrollToPosition(messages.size() - 1);
+        postMessage(new SaayaMemoryDB.ChatMessage(-1, System.currentTimeMillis(), false, text));
     }
 
-    private void checkAccessibilityService() {
-        SaayaService service = SaayaService.getInstance();
-        if (service == null || !service.isServiceActive()) {
-            // Show message to enable accessibility
-            addBotMessage("⚠️ Abhi main inactive hoon. Mujhe activate karne ke liye:\n\n1. Settings → Accessibility\n2. Saaya ko enable karen\n3. Wapas aayein");
+    /**
+     * Queue a live message; everything queued before the next frame is
+     * inserted with one notify and one scroll
+     */
+    private void postMessage(SaayaMemoryDB.ChatMessage message) {
+        pendingMessages.add(message);
+        if (!flushPosted) {
+            flushPosted = true;
+            recyclerView.postOnAnimation(flushPending);
+        }
+    }
+
+    private final Runnable flushPending = new Runnable() {
+        @Override
+        public void run() {
+            flushPosted = false;
+            // A history reload is in flight; it re-posts this once done
+            if (loading || pendingMessages.isEmpty()) {
+                return;
+            }
+            int start = messages.size();
+            int count = pendingMessages.size();
+            messages.addAll(pendingMessages);
+            pendingMessages.clear();
+            chatAdapter.notifyItemRangeInserted(start, count);
+            trimOldest();
+
+            int last = messages.size() - 1;
+            if (count == 1) {
+                recyclerView.smoothScrollToPosition(last);
+            } else {
+                recyclerView.scrollToPosition(last);
+            }
+        }
+    };
+
+    /**
+     * Swap in the stored copy of a message shown before it had an id; same
+     * text, so no rebind is needed
+     */
+    private void replaceMessage(SaayaMemoryDB.ChatMessage shown, SaayaMemoryDB.ChatMessage stored) {
+        int index = messages.indexOf(shown);
+        if (index >= 0) {
+            messages.set(index, stored);
+            return;
+        }
+        index = pendingMessages.indexOf(shown);
+        if (index >= 0) {
+            pendingMessages.set(index, stored);
+            return;
+        }
+        index = parkedMessages.indexOf(shown);
+        if (index >= 0) {
+            // Stored now, so paging brings it back; parking it too would show it twice
+            parkedMessages.remove(index);
+        }
+    }
+
+    /**
+     * Replace the window with the newest stored page
+     */
+    private void loadLatest() {
+        loading = true;
+        queryExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<SaayaMemoryDB.ChatMessage> page =
+                        client.getChatMessages(Long.MAX_VALUE, PAGE_SIZE);
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (isFinishing()) {
+                            return;
+                        }
+                        int removed = messages.size();
+                        park(messages);
+                        messages.clear();
+                        chatAdapter.notifyItemRangeRemoved(0, removed);
+                        messages.addAll(page);
+                        chatAdapter.notifyItemRangeInserted(0, page.size());
+                        hasOlder = page.size() == PAGE_SIZE;
+                        hasNewer = false;
+                        dropShown();
+                        restoreParked();
+                        loading = false;
+
+                        if (page.isEmpty()) {
+                            addBotMessage("Welcome back! I'm Saaya, your personal productivity assistant. How can I help you today?");
+                        } else {
+                            recyclerView.scrollToPosition(messages.size() - 1);
+                        }
+                        flushIfPending();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Page in more history when the user nears either end of the window
+     */
+    private void loadMoreIfNeeded() {
+        if (loading) {
+            return;
+        }
+        if (hasOlder && layoutManager.findFirstVisibleItemPosition() <= PREFETCH_DISTANCE) {
+            loadOlder();
+        } else if (hasNewer
+                && layoutManager.findLastVisibleItemPosition() >= messages.size() - 1 - PREFETCH_DISTANCE) {
+            loadNewer();
+        }
+    }
+
+    private void loadOlder() {
+        final long beforeId = oldestStoredId();
+        if (beforeId == Long.MAX_VALUE) {
+            // Only transient messages on screen; paging from "newest" would repeat the latest page
+            hasOlder = false;
+            return;
+        }
+        loading = true;
+        queryExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<SaayaMemoryDB.ChatMessage> page = client.getChatMessages(beforeId, PAGE_SIZE);
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (isFinishing()) {
+                            return;
+                        }
+                        messages.addAll(0, page);
+                        chatAdapter.notifyItemRangeInserted(0, page.size());
+                        hasOlder = page.size() == PAGE_SIZE;
+                        trimNewest();
+                        loading = false;
+                        flushIfPending();
+                    }
+                });
+            }
+        });
+    }
+
+    private void loadNewer() {
+        final long afterId = newestStoredId();
+        loading = true;
+        queryExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<SaayaMemoryDB.ChatMessage> page =
+                        client.getChatMessagesAfter(afterId, PAGE_SIZE);
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (isFinishing()) {
+                            return;
+                        }
+                        int start = messages.size();
+                        messages.addAll(page);
+                        chatAdapter.notifyItemRangeInserted(start, page.size());
+                        hasNewer = page.size() == PAGE_SIZE;
+                        dropShown();
+                        if (!hasNewer) {
+                            restoreParked();
+                        }
+                        trimOldest();
+                        loading = false;
+                        flushIfPending();
+                    }
+                });
+            }
+        });
+    }
+
+    private void flushIfPending() {
+        if (!pendingMessages.isEmpty() && !flushPosted) {
+            flushPosted = true;
+            recyclerView.postOnAnimation(flushPending);
         }
     }
 
+    /**
+     * Drop the oldest rows beyond the window; they can be paged back in
+     */
+    private void trimOldest() {
+        int excess = messages.size() - MAX_WINDOW;
+        if (excess > 0) {
+            messages.subList(0, excess).clear();
+            chatAdapter.notifyItemRangeRemoved(0, excess);
+            hasOlder = true;
+        }
+    }
+
+    /**
+     * Drop the newest rows beyond the window while the user reads history;
+     * transient ones among them are parked rather than lost
+     */
+    private void trimNewest() {
+        int excess = messages.size() - MAX_WINDOW;
+        if (excess > 0) {
+            List<SaayaMemoryDB.ChatMessage> dropped = messages.subList(MAX_WINDOW, messages.size());
+            park(dropped);
+            dropped.clear();
+            chatAdapter.notifyItemRangeRemoved(MAX_WINDOW, excess);
+            hasNewer = true;
+        }
+    }
+
+    /**
+     * Keep the transient messages among rows leaving the window
+     */
+    private void park(List<SaayaMemoryDB.ChatMessage> leaving) {
+        for (SaayaMemoryDB.ChatMessage message : leaving) {
+            if (message.id <= 0) {
+                parkedMessages.add(message);
+            }
+        }
+    }
+
+    /**
+     * Forget queued and parked messages the window now shows. A reply stored
+     * while a page was loading comes back in that page as well as through
+     * askChat, so stored ones are matched by id; transient ones can only be
+     * the same object.
+     */
+    private void dropShown() {
+        Set<Long> shownIds = new HashSet<>();
+        for (SaayaMemoryDB.ChatMessage message : messages) {
+            if (message.id > 0) {
+                shownIds.add(message.id);
+            }
+        }
+        dropShown(pendingMessages, shownIds);
+        dropShown(parkedMessages, shownIds);
+    }
+
+    private void dropShown(List<SaayaMemoryDB.ChatMessage> queued, Set<Long> shownIds) {
+        Iterator<SaayaMemoryDB.ChatMessage> it = queued.iterator();
+        while (it.hasNext()) {
+            SaayaMemoryDB.ChatMessage message = it.next();
+            if (message.id > 0 ? shownIds.contains(message.id) : messages.contains(message)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Put parked messages back among the newest rows by time, now that the
+     * window ends at the newest stored row again
+     */
+    private void restoreParked() {
+        for (SaayaMemoryDB.ChatMessage parked : parkedMessages) {
+            if (messages.contains(parked)) {
+                // Parked twice by overlapping reloads
+                continue;
+            }
+            int index = messages.size();
+            while (index > 0 && messages.get(index - 1).timestamp > parked.timestamp) {
+                index--;
+            }
+            messages.add(index, parked);
+            chatAdapter.notifyItemInserted(index);
+        }
+        parkedMessages.clear();
+    }
+
+    /**
+     * Paging keys skip messages that are not stored (id -1)
+     */
+    private long oldestStoredId() {
+        for (SaayaMemoryDB.ChatMessage message : messages) {
+            if (message.id > 0) {
+                return message.id;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    private long newestStoredId() {
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            if (messages.get(i).id > 0) {
+                return messages.get(i).id;
+            }
+        }
+        return 0;
+    }
+
+    private void checkAccessibilityService() {
+        // The service may live in another process; ask through the provider
+        queryExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (client.isServiceActive()) {
+                    return;
+                }
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!isFinishing()) {
+                            // Show message to enable accessibility
+                            addBotMessage("⚠️ Abhi main inactive hoon. Mujhe activate karne ke liye:\n\n1. Settings → Accessibility\n2. Saaya ko enable karen\n3. Wapas aayein");
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        queryExecutor.shutdownNow();
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         menu.add(0, 1, 0, "Dashboard")
@@ -204,17 +558,4 @@ public class MainActivity extends AppCompatActivity {
                 return super.onOptionsItemSelected(item);
         }
     }
-
-    /**
-     * ChatMessage - Model class
-     */
-    public static class ChatMessage {
-        public final String text;
-        public final boolean isUser;
-
-        public ChatMessage(String text, boolean isUser) {
-            this.text = text;
-            this.isUser = isUser;
-        }
-    }
 }
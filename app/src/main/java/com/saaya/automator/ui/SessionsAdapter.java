@@ -0,0 +1,130 @@
+package com.saaya.automator.ui;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.saaya.automator.R;
+import com.saaya.automator.core.SaayaTrace;
+import com.saaya.automator.data.AppRegistry;
+import com.saaya.automator.data.SaayaMemoryDB;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * SessionsAdapter - RecyclerView adapter for recent conversations
+ */
+public class SessionsAdapter extends RecyclerView.Adapter<SessionsAdapter.SessionViewHolder> {
+
+    /**
+     * Tap on a conversation
+     */
+    public interface OnSessionClickListener {
+        void onSessionClick(SaayaMemoryDB.Session session);
+    }
+
+    private List<SaayaMemoryDB.Session> sessions;
+    private final OnSessionClickListener listener;
+    private final SimpleDateFormat dateFormat;
+    private final AppRegistry appRegistry;
+
+    public SessionsAdapter(List<SaayaMemoryDB.Session> sessions, AppRegistry appRegistry,
+                           OnSessionClickListener listener) {
+        this.sessions = sessions;
+        this.appRegistry = appRegistry;
+        this.listener = listener;
+        this.dateFormat = new SimpleDateFormat("MMM dd, hh:mm a", Locale.getDefault());
+    }
+
+    /**
+     * Swap in a fresh list, rebinding only the conversations that changed
+     */
+    public void update(final List<SaayaMemoryDB.Session> newSessions) {
+        final List<SaayaMemoryDB.Session> oldSessions = sessions;
+        DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldSessions.size();
+            }
+
+            @Override
+            public int getNewListSize() {
+                return newSessions.size();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                return oldSessions.get(oldPosition).id == newSessions.get(newPosition).id;
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                SaayaMemoryDB.Session a = oldSessions.get(oldPosition);
+                SaayaMemoryDB.Session b = newSessions.get(newPosition);
+                return a.startTime == b.startTime
+                        && a.messageCount == b.messageCount
+                        && Objects.equals(a.packageName, b.packageName)
+                        && Objects.equals(a.recipientName, b.recipientName);
+            }
+        });
+        sessions = newSessions;
+        diff.dispatchUpdatesTo(this);
+    }
+
+    @NonNull
+    @Override
+    public SessionViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.item_session, parent, false);
+        return new SessionViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull SessionViewHolder holder, int position) {
+        SaayaTrace.begin(SaayaTrace.BIND_SESSION);
+        try {
+            final SaayaMemoryDB.Session session = sessions.get(position);
+            holder.bind(session, dateFormat, appRegistry);
+            holder.itemView.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    listener.onSessionClick(session);
+                }
+            });
+        } finally {
+            SaayaTrace.end();
+        }
+    }
+
+    @Override
+    public int getItemCount() {
+        return sessions.size();
+    }
+
+    static class SessionViewHolder extends RecyclerView.ViewHolder {
+        TextView tvRecipient, tvApp, tvSummary;
+
+        SessionViewHolder(@NonNull View itemView) {
+            super(itemView);
+            tvRecipient = itemView.findViewById(R.id.tvSessionRecipient);
+            tvApp = itemView.findViewById(R.id.tvSessionApp);
+            tvSummary = itemView.findViewById(R.id.tvSessionSummary);
+        }
+
+        void bind(SaayaMemoryDB.Session session, SimpleDateFormat dateFormat, AppRegistry appRegistry) {
+            tvRecipient.setText(session.recipientName);
+            tvApp.setText(appRegistry.getLabel(session.packageName));
+            tvSummary.setText(dateFormat.format(new Date(session.startTime)) + " - "
+                    + session.messageCount + (session.messageCount == 1 ? " message" : " messages"));
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.saaya.automator.ui;
 
 import android.os.Bundle;
+import android.text.TextUtils;
 import android.util.Log;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -10,7 +11,12 @@ import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.android.material.card.MaterialCardView;
+import com.google.android.material.chip.ChipGroup;
 import com.saaya.automator.R;
+import com.saaya.automator.core.SaayaTrace;
+import com.saaya.automator.data.AppRegistry;
+import com.saaya.automator.data.SaayaClient;
+import com.saaya.automator.data.SaayaContract;
 import com.saaya.automator.data.SaayaMemoryDB;
 
 import java.util.List;
@@ -23,9 +29,15 @@ public class StatsActivity extends AppCompatActivity {
 
     private static final String TAG = "StatsActivity";
     private TextView tvTotalMessages, tvWritingStyle, tvPeakTime, tvFavApp;
-    private RecyclerView logsRecyclerView;
+    private TextView tvRangeMessages, tvRangeWords, tvRangeTopApp, tvRangeTopContact;
+    private TextView tvHistoryTitle;
+    private ChipGroup rangeChips;
+    private RecyclerView logsRecyclerView, sessionsRecyclerView;
     private LogsAdapter logsAdapter;
-    private SaayaMemoryDB memoryDB;
+    private SessionsAdapter sessionsAdapter;
+    private long selectedSessionId = -1;
+    private SaayaClient client;
+    private AppRegistry appRegistry;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -42,9 +54,10 @@ public class StatsActivity extends AppCompatActivity {
                 getSupportActionBar().setDisplayHomeAsUpEnabled(true);
             }
 
-            // Initialize database
-            memoryDB = SaayaMemoryDB.getInstance(this);
-            Log.d(TAG, "Database initialized");
+            // Reads go through SaayaProvider in the service process
+            client = new SaayaClient(this);
+            appRegistry = AppRegistry.getInstance(this);
+            Log.d(TAG, "Client initialized");
 
             // Initialize views
             tvTotalMessages = findViewById(R.id.tvTotalMessages);
@@ -52,6 +65,13 @@ public class StatsActivity extends AppCompatActivity {
             tvPeakTime = findViewById(R.id.tvPeakTime);
             tvFavApp = findViewById(R.id.tvFavApp);
             logsRecyclerView = findViewById(R.id.logsRecyclerView);
+            sessionsRecyclerView = findViewById(R.id.sessionsRecyclerView);
+            tvHistoryTitle = findViewById(R.id.tvHistoryTitle);
+            rangeChips = findViewById(R.id.rangeChips);
+            tvRangeMessages = findViewById(R.id.tvRangeMessages);
+            tvRangeWords = findViewById(R.id.tvRangeWords);
+            tvRangeTopApp = findViewById(R.id.tvRangeTopApp);
+            tvRangeTopContact = findViewById(R.id.tvRangeTopContact);
             
             Log.d(TAG, "Views found - TotalMsg: " + (tvTotalMessages != null) + 
                        ", Style: " + (tvWritingStyle != null) +
@@ -61,7 +81,10 @@ public class StatsActivity extends AppCompatActivity {
 
             // Null checks for all views
             if (tvTotalMessages == null || tvWritingStyle == null || 
-                tvPeakTime == null || tvFavApp == null || logsRecyclerView == null) {
+                tvPeakTime == null || tvFavApp == null || logsRecyclerView == null ||
+                rangeChips == null || tvRangeMessages == null || tvRangeWords == null ||
+                tvRangeTopApp == null || tvRangeTopContact == null ||
+                sessionsRecyclerView == null || tvHistoryTitle == null) {
                 Log.e(TAG, "Error: One or more views not found");
                 Toast.makeText(this, "Error loading dashboard", Toast.LENGTH_SHORT).show();
                 finish();
@@ -70,10 +93,27 @@ public class StatsActivity extends AppCompatActivity {
 
             // Setup RecyclerView
             logsRecyclerView.setLayoutManager(new LinearLayoutManager(this));
+            sessionsRecyclerView.setLayoutManager(new LinearLayoutManager(this));
 
-            // Load data
-            loadAnalytics();
-            loadLogs();
+            // Date range selector
+            rangeChips.setOnCheckedStateChangeListener(new ChipGroup.OnCheckedStateChangeListener() {
+                @Override
+                public void onCheckedChanged(ChipGroup group, List<Integer> checkedIds) {
+                    loadRangeStats(group.getCheckedChipId());
+                }
+            });
+
+            // Paint the last known dashboard straight away, then revalidate
+            SaayaTrace.begin(SaayaTrace.SNAPSHOT_LOAD);
+            try {
+                DashboardSnapshot snapshot = DashboardSnapshot.load(this);
+                if (snapshot != null) {
+                    render(snapshot);
+                }
+            } finally {
+                SaayaTrace.end();
+            }
+            refreshDashboard();
             
             Log.d(TAG, "onCreate completed successfully");
             
@@ -84,20 +124,180 @@ public class StatsActivity extends AppCompatActivity {
         }
     }
 
-    private void loadAnalytics() {
+    /**
+     * Show a saved snapshot before anything has been read from the provider
+     */
+    private void render(DashboardSnapshot snapshot) {
+        renderProfile(snapshot.profile);
+        if (rangeChips.getCheckedChipId() == R.id.chipWeek) {
+            renderRange(snapshot.rangeTotal, snapshot.rangeTopApp, snapshot.rangeTopContact);
+        }
+        showSessions(snapshot.sessions);
+        showLogs(snapshot.logs);
+    }
+
+    /**
+     * Fetch everything the snapshot holds, apply what changed and save it for next time
+     */
+    private void refreshDashboard() {
         // Run on background thread
         new Thread(new Runnable() {
             @Override
             public void run() {
-                final Map<String, String> profile = memoryDB.getPersonalityProfile();
-                
+                final Map<String, String> profile = client.getPersonalityProfile();
+                // The provider always fills in every key, so a null or empty profile
+                // means it was unreachable: keep the snapshot on screen and on disk
+                if (profile == null || profile.isEmpty()) {
+                    Log.w(TAG, "Profile unavailable, keeping the snapshot");
+                    return;
+                }
+                final int toDay = SaayaMemoryDB.epochDay(System.currentTimeMillis());
+                final int fromDay = toDay - 6;
+                final SaayaMemoryDB.RangeStat total =
+                        client.getTop(fromDay, toDay, SaayaMemoryDB.GroupBy.NONE);
+                final SaayaMemoryDB.RangeStat topApp =
+                        client.getTop(fromDay, toDay, SaayaMemoryDB.GroupBy.APP);
+                final SaayaMemoryDB.RangeStat topContact =
+                        client.getTop(fromDay, toDay, SaayaMemoryDB.GroupBy.RECIPIENT);
+                final List<SaayaMemoryDB.Session> sessions =
+                        client.getRecentSessions(SaayaContract.Sessions.DEFAULT_PAGE_SIZE);
+                final List<SaayaMemoryDB.LogEntry> logs = client.getAllLogs();
+
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (isFinishing()) {
+                            return;
+                        }
+                        renderProfile(profile);
+                        if (rangeChips.getCheckedChipId() == R.id.chipWeek) {
+                            renderRange(total, topApp, topContact);
+                        }
+                        showSessions(sessions);
+                        if (selectedSessionId == -1) {
+                            showLogs(logs);
+                        }
+                    }
+                });
+
+                SaayaTrace.begin(SaayaTrace.SNAPSHOT_SAVE);
+                try {
+                    new DashboardSnapshot(profile, total, topApp, topContact, sessions, logs)
+                            .save(getApplicationContext());
+                } finally {
+                    SaayaTrace.end();
+                }
+            }
+        }).start();
+    }
+
+    /**
+     * Range summary for the selected chip, answered from the bucket aggregates
+     */
+    private void loadRangeStats(final int chipId) {
+        final int toDay = SaayaMemoryDB.epochDay(System.currentTimeMillis());
+        final int fromDay;
+        if (chipId == R.id.chipToday) {
+            fromDay = toDay;
+        } else if (chipId == R.id.chipMonth) {
+            fromDay = toDay - 29;
+        } else if (chipId == R.id.chipAllTime) {
+            fromDay = Integer.MIN_VALUE;
+        } else {
+            fromDay = toDay - 6;
+        }
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final SaayaMemoryDB.RangeStat total =
+                        client.getTop(fromDay, toDay, SaayaMemoryDB.GroupBy.NONE);
+                final SaayaMemoryDB.RangeStat topApp =
+                        client.getTop(fromDay, toDay, SaayaMemoryDB.GroupBy.APP);
+                final SaayaMemoryDB.RangeStat topContact =
+                        client.getTop(fromDay, toDay, SaayaMemoryDB.GroupBy.RECIPIENT);
+
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        // Ignore results for a chip that is no longer selected
+                        if (rangeChips.getCheckedChipId() != chipId) {
+                            return;
+                        }
+                        renderRange(total, topApp, topContact);
+                    }
+                });
+            }
+        }).start();
+    }
+
+    private void renderProfile(Map<String, String> profile) {
+        setTextIfChanged(tvTotalMessages, "Total Messages: " + profile.get("totalMessages"));
+        setTextIfChanged(tvWritingStyle, "Writing Style: " + profile.get("writingStyle"));
+        setTextIfChanged(tvPeakTime, "Peak Time: " + profile.get("peakTime"));
+        setTextIfChanged(tvFavApp, "Favorite App: " + profile.get("favApp"));
+    }
+
+    private void renderRange(SaayaMemoryDB.RangeStat total, SaayaMemoryDB.RangeStat topApp,
+                             SaayaMemoryDB.RangeStat topContact) {
+        setTextIfChanged(tvRangeMessages, "Messages: " + (total != null ? total.messageCount : 0));
+        setTextIfChanged(tvRangeWords, "Words: " + (total != null ? total.wordCount : 0));
+        setTextIfChanged(tvRangeTopApp, "Top App: " + (topApp == null ? "N/A"
+                : topApp.label + " (" + topApp.messageCount + ")"));
+        setTextIfChanged(tvRangeTopContact, "Top Contact: " + (topContact == null ? "N/A"
+                : topContact.label + " (" + topContact.messageCount + ")"));
+    }
+
+    /**
+     * Skip setText when nothing changed so a revalidation that finds the same
+     * numbers causes no relayout
+     */
+    private static void setTextIfChanged(TextView view, String text) {
+        if (!TextUtils.equals(view.getText(), text)) {
+            view.setText(text);
+        }
+    }
+
+    private void showSessions(List<SaayaMemoryDB.Session> sessions) {
+        if (sessionsAdapter != null) {
+            sessionsAdapter.update(sessions);
+            return;
+        }
+        sessionsAdapter = new SessionsAdapter(sessions, appRegistry,
+                new SessionsAdapter.OnSessionClickListener() {
+                    @Override
+                    public void onSessionClick(SaayaMemoryDB.Session session) {
+                        toggleSession(session);
+                    }
+                });
+        sessionsRecyclerView.setAdapter(sessionsAdapter);
+    }
+
+    /**
+     * Drill into a conversation; tapping it again goes back to the full history
+     */
+    private void toggleSession(SaayaMemoryDB.Session session) {
+        if (selectedSessionId == session.id) {
+            selectedSessionId = -1;
+            tvHistoryTitle.setText("Message History");
+            loadLogs();
+            return;
+        }
+
+        final long sessionId = session.id;
+        selectedSessionId = sessionId;
+        tvHistoryTitle.setText("Conversation with " + session.recipientName);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final List<SaayaMemoryDB.LogEntry> logs = client.getSessionLogs(sessionId);
+
                 runOnUiThread(new Runnable() {
                     @Override
                     public void run() {
-                        tvTotalMessages.setText("Total Messages: " + profile.get("totalMessages"));
-                        tvWritingStyle.setText("Writing Style: " + profile.get("writingStyle"));
-                        tvPeakTime.setText("Peak Time: " + profile.get("peakTime"));
-                        tvFavApp.setText("Favorite App: " + profile.get("favApp"));
+                        if (selectedSessionId == sessionId) {
+                            showLogs(logs);
+                        }
                     }
                 });
             }
@@ -109,19 +309,29 @@ public class StatsActivity extends AppCompatActivity {
         new Thread(new Runnable() {
             @Override
             public void run() {
-                final List<SaayaMemoryDB.LogEntry> logs = memoryDB.getAllLogs();
+                final List<SaayaMemoryDB.LogEntry> logs = client.getAllLogs();
                 
                 runOnUiThread(new Runnable() {
                     @Override
                     public void run() {
-                        logsAdapter = new LogsAdapter(logs);
-                        logsRecyclerView.setAdapter(logsAdapter);
+                        if (selectedSessionId == -1) {
+                            showLogs(logs);
+                        }
                     }
                 });
             }
         }).start();
     }
 
+    private void showLogs(List<SaayaMemoryDB.LogEntry> logs) {
+        if (logsAdapter != null) {
+            logsAdapter.update(logs);
+            return;
+        }
+        logsAdapter = new LogsAdapter(logs, appRegistry);
+        logsRecyclerView.setAdapter(logsAdapter);
+    }
+
     @Override
     public boolean onSupportNavigateUp() {
         onBackPressed();
@@ -0,0 +1,139 @@
+package com.saaya.automator.core;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * PackageTableTest - Exact, sub-package and rejected matches, and what the
+ * per-event lookup allocates
+ */
+public class PackageTableTest {
+
+    // Enough calls for the JIT to compile the lookup before measuring
+    private static final int WARMUP_CALLS = 20_000;
+    private static final int MEASURED_CALLS = 10_000;
+    // Slack for the measuring itself, far below one allocation per call
+    private static final long NOISE_BYTES = 1024;
+
+    private final PackageTable table = new PackageTable(
+            "com.whatsapp", "org.telegram.messenger", "com.whatsapp.w4b.extra");
+
+    @Test
+    public void exactNameMatches() {
+        assertEquals(0, table.indexOf("com.whatsapp"));
+        assertEquals(1, table.indexOf(new StringBuilder("org.telegram.messenger")));
+    }
+
+    @Test
+    public void dottedSubPackageMatchesParent() {
+        assertEquals(0, table.indexOf("com.whatsapp.w4b"));
+        assertEquals(1, table.indexOf("org.telegram.messenger.beta"));
+    }
+
+    @Test
+    public void firstMatchingEntryWins() {
+        // Also a sub-package of entry 0, which comes first
+        assertEquals(0, table.indexOf("com.whatsapp.w4b.extra"));
+    }
+
+    @Test
+    public void prefixWithoutDotDoesNotMatch() {
+        assertEquals(-1, table.indexOf("com.whatsappx"));
+        assertEquals(-1, table.indexOf("com.whatsapp_w4b"));
+        assertEquals(-1, table.indexOf("org.telegram.messengerplus"));
+    }
+
+    @Test
+    public void unknownAndShortNamesMiss() {
+        assertEquals(-1, table.indexOf("com.whatsapq"));
+        assertEquals(-1, table.indexOf("xom.whatsapp"));
+        assertEquals(-1, table.indexOf("com.whats"));
+        assertEquals(-1, table.indexOf(""));
+    }
+
+    @Test
+    public void nullNameMisses() {
+        assertEquals(-1, table.indexOf(null));
+    }
+
+    @Test
+    public void nameOfReusesTableStringOnlyForExactMatches() {
+        String exact = table.nameOf(new StringBuilder("com.whatsapp"), 0);
+        assertSame(table.nameOf("com.whatsapp", 0), exact);
+
+        String sub = table.nameOf(new StringBuilder("com.whatsapp.w4b"), 0);
+        assertEquals("com.whatsapp.w4b", sub);
+        assertNotSame(table.nameOf("com.whatsapp", 0), sub);
+    }
+
+    @Test
+    public void rejectedLookupDoesNotAllocate() {
+        // Events arrive as CharSequences; a rejected one must cost no garbage
+        final CharSequence other = new StringBuilder("com.android.systemui");
+        long bytes = allocatedBy(new Runnable() {
+            @Override
+            public void run() {
+                if (table.indexOf(other) != -1) {
+                    throw new AssertionError();
+                }
+            }
+        });
+        assertTrue("rejected lookups allocated " + bytes + " bytes", bytes < NOISE_BYTES);
+    }
+
+    @Test
+    public void acceptedLookupAllocatesOnlyForSubPackages() {
+        final CharSequence exact = new StringBuilder("com.whatsapp");
+        long exactBytes = allocatedBy(new Runnable() {
+            @Override
+            public void run() {
+                if (table.nameOf(exact, table.indexOf(exact)) == null) {
+                    throw new AssertionError();
+                }
+            }
+        });
+        assertTrue("exact matches allocated " + exactBytes + " bytes", exactBytes < NOISE_BYTES);
+
+        // A sub-package needs its own String, and nothing more
+        final CharSequence sub = new StringBuilder("com.whatsapp.w4b");
+        long subBytes = allocatedBy(new Runnable() {
+            @Override
+            public void run() {
+                if (table.nameOf(sub, table.indexOf(sub)) == null) {
+                    throw new AssertionError();
+                }
+            }
+        });
+        long perCall = subBytes / MEASURED_CALLS;
+        assertTrue("sub-package matches allocated " + perCall + " bytes per call", perCall <= 128);
+    }
+
+    /**
+     * Bytes this thread allocated over MEASURED_CALLS runs of call, after a
+     * warm-up; skips the test on a JVM that cannot count them
+     */
+    private static long allocatedBy(Runnable call) {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        for (int i = 0; i < WARMUP_CALLS; i++) {
+            call.run();
+        }
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_CALLS; i++) {
+            call.run();
+        }
+        return threads.getThreadAllocatedBytes(threadId) - before;
+    }
+}
@@ -0,0 +1,170 @@
+package com.saaya.automator.data;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * CountMinTopKTest - Leader eviction, ordering and the never-undercount bound
+ */
+public class CountMinTopKTest {
+
+    private static final int WIDTH = 2048;
+    private static final int DEPTH = 4;
+
+    private static long hash(String key) {
+        return HyperLogLogTest.hash(key.hashCode());
+    }
+
+    private static void add(CountMinTopK sketch, String key, int times) {
+        for (int i = 0; i < times; i++) {
+            sketch.add(key, hash(key));
+        }
+    }
+
+    private static int countOf(List<SaayaMemoryDB.TermCount> top, String key) {
+        for (SaayaMemoryDB.TermCount entry : top) {
+            if (entry.term.equals(key)) {
+                return entry.count;
+            }
+        }
+        return -1;
+    }
+
+    private static void assertDescending(List<SaayaMemoryDB.TermCount> top) {
+        for (int i = 1; i < top.size(); i++) {
+            assertTrue(top.get(i - 1).count >= top.get(i).count);
+        }
+    }
+
+    @Test
+    public void topIsOrderedHighestFirst() {
+        CountMinTopK sketch = new CountMinTopK(WIDTH, DEPTH, 5);
+        add(sketch, "c", 3);
+        add(sketch, "a", 7);
+        add(sketch, "e", 1);
+        add(sketch, "b", 5);
+        add(sketch, "d", 2);
+
+        List<SaayaMemoryDB.TermCount> top = sketch.top(5);
+        assertEquals(5, top.size());
+        String[] expected = {"a", "b", "c", "d", "e"};
+        int[] counts = {7, 5, 3, 2, 1};
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], top.get(i).term);
+            assertEquals(counts[i], top.get(i).count);
+        }
+        assertEquals(2, sketch.top(2).size());
+        assertEquals(18, sketch.total());
+    }
+
+    @Test
+    public void newcomerEvictsWeakestLeaderOnlyWhenAhead() {
+        CountMinTopK sketch = new CountMinTopK(WIDTH, DEPTH, 3);
+        add(sketch, "a", 5);
+        add(sketch, "b", 4);
+        add(sketch, "c", 3);
+
+        // Tied with the weakest leader: not enough
+        add(sketch, "d", 3);
+        assertEquals(-1, countOf(sketch.top(3), "d"));
+        assertEquals(3, countOf(sketch.top(3), "c"));
+
+        add(sketch, "d", 1);
+        List<SaayaMemoryDB.TermCount> top = sketch.top(3);
+        assertEquals(3, top.size());
+        assertEquals(-1, countOf(top, "c"));
+        assertEquals(4, countOf(top, "d"));
+        assertEquals(5, countOf(top, "a"));
+        assertEquals(4, countOf(top, "b"));
+        assertDescending(top);
+    }
+
+    @Test
+    public void leaderKeepsRisingInPlace() {
+        CountMinTopK sketch = new CountMinTopK(WIDTH, DEPTH, 3);
+        add(sketch, "a", 1);
+        add(sketch, "b", 2);
+        add(sketch, "c", 3);
+        add(sketch, "a", 9);
+
+        List<SaayaMemoryDB.TermCount> top = sketch.top(3);
+        assertEquals("a", top.get(0).term);
+        assertEquals(10, top.get(0).count);
+        assertEquals(3, top.size());
+        assertDescending(top);
+    }
+
+    @Test
+    public void estimatesNeverUndercount() {
+        // Narrow sketch so keys share counters
+        CountMinTopK sketch = new CountMinTopK(64, DEPTH, 10);
+        Map<String, Integer> truth = new HashMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 20000; i++) {
+            // Skewed: low keys are far more frequent
+            String key = "k" + (int) Math.abs(random.nextGaussian() * 60);
+            sketch.add(key, hash(key));
+            Integer count = truth.get(key);
+            truth.put(key, count != null ? count + 1 : 1);
+        }
+
+        for (Map.Entry<String, Integer> entry : truth.entrySet()) {
+            assertTrue(entry.getKey(), sketch.estimate(hash(entry.getKey())) >= entry.getValue());
+        }
+        for (SaayaMemoryDB.TermCount entry : sketch.top(10)) {
+            assertTrue(entry.term, entry.count >= truth.get(entry.term));
+        }
+        assertDescending(sketch.top(10));
+        assertEquals(20000, sketch.total());
+    }
+
+    @Test
+    public void clearDropsCountsAndLeaders() {
+        CountMinTopK sketch = new CountMinTopK(WIDTH, DEPTH, 3);
+        add(sketch, "a", 4);
+        sketch.clear();
+        assertEquals(0, sketch.total());
+        assertEquals(0, sketch.estimate(hash("a")));
+        assertEquals(0, sketch.top(3).size());
+    }
+
+    @Test
+    public void roundTripKeepsCountersAndLeaders() throws IOException {
+        // A few keys leave the counters sparse; a narrow sketch fills them
+        for (int width : new int[]{WIDTH, 16}) {
+            CountMinTopK sketch = new CountMinTopK(width, DEPTH, 4);
+            for (int i = 0; i < 12; i++) {
+                add(sketch, "key" + i, i + 1);
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            sketch.writeTo(new DataOutputStream(bytes));
+            CountMinTopK copy = new CountMinTopK(width, DEPTH, 4);
+            copy.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+            assertEquals(sketch.total(), copy.total());
+            for (int i = 0; i < 12; i++) {
+                assertEquals(sketch.estimate(hash("key" + i)), copy.estimate(hash("key" + i)));
+            }
+            List<SaayaMemoryDB.TermCount> top = sketch.top(4);
+            List<SaayaMemoryDB.TermCount> copied = copy.top(4);
+            assertEquals(top.size(), copied.size());
+            for (int i = 0; i < top.size(); i++) {
+                assertEquals(top.get(i).count, copied.get(i).count);
+                assertEquals(top.get(i).count, countOf(copied, top.get(i).term));
+            }
+        }
+    }
+}
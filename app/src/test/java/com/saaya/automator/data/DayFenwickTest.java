@@ -0,0 +1,118 @@
+package com.saaya.automator.data;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * DayFenwickTest - Range sums against a brute-force per-day model
+ */
+public class DayFenwickTest {
+
+    private final DayFenwick tree = new DayFenwick();
+    private final Map<Integer, Long> model = new TreeMap<>();
+
+    private void add(int day, long delta) {
+        tree.add(day, delta);
+        Long current = model.get(day);
+        model.put(day, (current != null ? current : 0L) + delta);
+    }
+
+    private long expected(int fromDay, int toDay) {
+        long total = 0;
+        for (Map.Entry<Integer, Long> entry : model.entrySet()) {
+            if (entry.getKey() >= fromDay && entry.getKey() <= toDay) {
+                total += entry.getValue();
+            }
+        }
+        return total;
+    }
+
+    private void assertAllRanges(int lowDay, int highDay) {
+        for (int from = lowDay; from <= highDay; from++) {
+            for (int to = from; to <= highDay; to++) {
+                assertEquals("sum(" + from + ", " + to + ")", expected(from, to), tree.sum(from, to));
+            }
+        }
+    }
+
+    @Test
+    public void emptyTreeSumsToZero() {
+        assertEquals(0, tree.sum(Integer.MIN_VALUE, Integer.MAX_VALUE));
+        assertEquals(0, tree.sum(0, 0));
+    }
+
+    @Test
+    public void rangesAreInclusiveAtBothEnds() {
+        add(20000, 3);
+        add(20001, 5);
+        add(20002, 7);
+
+        assertEquals(5, tree.sum(20001, 20001));
+        assertEquals(8, tree.sum(20000, 20001));
+        assertEquals(12, tree.sum(20001, 20002));
+        assertEquals(0, tree.sum(20002, 20001));
+    }
+
+    @Test
+    public void rangesPastTheAxisAreClipped() {
+        add(100, 4);
+        add(163, 6);
+
+        assertEquals(10, tree.sum(Integer.MIN_VALUE, Integer.MAX_VALUE));
+        assertEquals(4, tree.sum(0, 100));
+        assertEquals(6, tree.sum(163, 1000));
+        assertEquals(0, tree.sum(0, 99));
+        assertEquals(0, tree.sum(164, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void growsForwardPastInitialAxis() {
+        for (int day = 0; day < 300; day += 7) {
+            add(20000 + day, day + 1);
+        }
+        assertAllRanges(19990, 20310);
+    }
+
+    @Test
+    public void growsBackwardBeforeFirstDay() {
+        add(20000, 1);
+        add(19999, 2);
+        add(19936, 3);
+        add(19700, 4);
+        add(20063, 5);
+        assertAllRanges(19690, 20070);
+    }
+
+    @Test
+    public void randomAddsMatchModel() {
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            int day = 18000 + random.nextInt(400) - (i > 1000 ? 300 : 0);
+            add(day, random.nextInt(21) - 5);
+        }
+        for (int i = 0; i < 2000; i++) {
+            int from = 17600 + random.nextInt(900);
+            int to = from + random.nextInt(200);
+            assertEquals(expected(from, to), tree.sum(from, to));
+        }
+    }
+
+    @Test
+    public void clearStartsAFreshAxis() {
+        add(20000, 9);
+        tree.clear();
+        model.clear();
+        assertEquals(0, tree.sum(Integer.MIN_VALUE, Integer.MAX_VALUE));
+
+        // Far from the old axis, on both sides of it
+        add(5, 2);
+        add(-40, 3);
+        add(90, 4);
+        assertAllRanges(-45, 95);
+    }
+}
@@ -0,0 +1,109 @@
+package com.saaya.automator.data;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * HyperLogLogTest - Small-range correction, merging and persistence
+ */
+public class HyperLogLogTest {
+
+    private static final int PRECISION = 10;
+    // 1.04 / sqrt(2^10)
+    private static final double STANDARD_ERROR = 0.0325;
+
+    /** splitmix64, a stand-in for the well-mixed hashes SketchIndex feeds in */
+    static long hash(long value) {
+        long z = value + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private static HyperLogLog sketchOf(int from, int to) {
+        HyperLogLog sketch = new HyperLogLog(PRECISION);
+        for (int i = from; i < to; i++) {
+            sketch.add(hash(i));
+        }
+        return sketch;
+    }
+
+    private static HyperLogLog roundTrip(HyperLogLog sketch) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        sketch.writeTo(new DataOutputStream(bytes));
+        HyperLogLog copy = new HyperLogLog(PRECISION);
+        copy.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        return copy;
+    }
+
+    @Test
+    public void emptySketchEstimatesZero() {
+        assertEquals(0, new HyperLogLog(PRECISION).estimate());
+    }
+
+    @Test
+    public void smallRangeIsNearExact() {
+        // Linear counting keeps a handful of recipients exact
+        for (int n = 1; n <= 20; n++) {
+            assertEquals(n, sketchOf(0, n).estimate());
+        }
+        // Beyond that, within four standard errors like any other estimate
+        for (int n : new int[]{50, 100, 500, 1000, 2000}) {
+            long estimate = sketchOf(0, n).estimate();
+            assertTrue(n + " -> " + estimate, Math.abs(estimate - n) <= n * 4 * STANDARD_ERROR);
+        }
+    }
+
+    @Test
+    public void largeRangeStaysWithinError() {
+        int n = 200000;
+        long estimate = sketchOf(0, n).estimate();
+        assertTrue(n + " -> " + estimate, Math.abs(estimate - n) <= n * 4 * STANDARD_ERROR);
+    }
+
+    @Test
+    public void duplicatesDoNotCount() {
+        HyperLogLog sketch = sketchOf(0, 300);
+        long once = sketch.estimate();
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 300; i++) {
+                sketch.add(hash(i));
+            }
+        }
+        assertEquals(once, sketch.estimate());
+    }
+
+    @Test
+    public void mergeEqualsSketchOfTheUnion() {
+        HyperLogLog merged = sketchOf(0, 600);
+        merged.merge(sketchOf(300, 900));
+        assertEquals(sketchOf(0, 900).estimate(), merged.estimate());
+    }
+
+    @Test
+    public void clearForgetsEverything() {
+        HyperLogLog sketch = sketchOf(0, 100);
+        sketch.clear();
+        assertEquals(0, sketch.estimate());
+    }
+
+    @Test
+    public void roundTripKeepsEstimate() throws IOException {
+        // 50 values leave the registers sparse, 50000 fill them
+        for (int n : new int[]{0, 50, 50000}) {
+            HyperLogLog sketch = sketchOf(0, n);
+            HyperLogLog copy = roundTrip(sketch);
+            assertEquals(sketch.estimate(), copy.estimate());
+            copy.merge(sketch);
+            assertEquals(sketch.estimate(), copy.estimate());
+        }
+    }
+}
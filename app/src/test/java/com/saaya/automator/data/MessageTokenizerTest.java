@@ -0,0 +1,116 @@
+package com.saaya.automator.data;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+/**
+ * MessageTokenizerTest - Word boundaries, token ids and the EMPTY sentinel
+ */
+public class MessageTokenizerTest {
+
+    /**
+     * Records every token as id plus normalized span
+     */
+    private static final class Recorder implements MessageTokenizer.TokenSink {
+        final List<Long> wordIds = new ArrayList<>();
+        final List<String> words = new ArrayList<>();
+        final List<Long> phraseIds = new ArrayList<>();
+        final List<String> phrases = new ArrayList<>();
+
+        @Override
+        public void onWord(long wordId, CharSequence text, int start, int end) {
+            wordIds.add(wordId);
+            words.add(MessageTokenizer.normalizedTerm(text, start, end));
+        }
+
+        @Override
+        public void onPhrase(long phraseId, CharSequence text, int start, int end) {
+            phraseIds.add(phraseId);
+            phrases.add(MessageTokenizer.normalizedTerm(text, start, end));
+        }
+    }
+
+    private static Recorder tokenize(String text) {
+        Recorder recorder = new Recorder();
+        MessageTokenizer.tokenize(text, recorder);
+        return recorder;
+    }
+
+    @Test
+    public void countsWordsBetweenSeparators() {
+        assertEquals(0, MessageTokenizer.countWords(null));
+        assertEquals(0, MessageTokenizer.countWords(""));
+        assertEquals(0, MessageTokenizer.countWords("  ,.!? "));
+        assertEquals(4, MessageTokenizer.countWords("  Hello,world!  see you "));
+        assertEquals(3, MessageTokenizer.countWords("room 42b ok"));
+    }
+
+    @Test
+    public void innerApostrophesStayInTheWord() {
+        Recorder recorder = tokenize("Don't 'quote' rock’n");
+        assertEquals(3, recorder.words.size());
+        assertEquals("don't", recorder.words.get(0));
+        assertEquals("quote", recorder.words.get(1));
+        assertEquals("rock’n", recorder.words.get(2));
+    }
+
+    @Test
+    public void combiningMarksAreWordCharacters() {
+        // Hindi "namaste" carries vowel signs and a virama between letters
+        assertEquals(1, MessageTokenizer.countWords("नमस्ते"));
+        assertEquals(2, MessageTokenizer.countWords("नमस्ते दोस्त"));
+    }
+
+    @Test
+    public void idsIgnoreCase() {
+        Recorder recorder = tokenize("Hello HELLO hello");
+        assertEquals(recorder.wordIds.get(0), recorder.wordIds.get(1));
+        assertEquals(recorder.wordIds.get(0), recorder.wordIds.get(2));
+        assertNotEquals(recorder.wordIds.get(0), tokenize("hellO there").wordIds.get(1));
+    }
+
+    @Test
+    public void phrasesJoinAdjacentWords() {
+        Recorder recorder = tokenize("Good  morning, dear friend");
+        assertEquals(3, recorder.phrases.size());
+        assertEquals("good morning", recorder.phrases.get(0));
+        assertEquals("morning dear", recorder.phrases.get(1));
+        assertEquals("dear friend", recorder.phrases.get(2));
+        // Order matters: "a b" and "b a" are different phrases
+        assertNotEquals(tokenize("a b").phraseIds.get(0), tokenize("b a").phraseIds.get(0));
+    }
+
+    @Test
+    public void normalizedTermIsCappedAtMaxLength() {
+        StringBuilder longWord = new StringBuilder();
+        for (int i = 0; i < MessageTokenizer.MAX_TERM_LENGTH * 2; i++) {
+            longWord.append('A');
+        }
+        String term = MessageTokenizer.normalizedTerm(longWord, 0, longWord.length());
+        assertEquals(MessageTokenizer.MAX_TERM_LENGTH, term.length());
+        assertEquals('a', term.charAt(0));
+    }
+
+    @Test
+    public void zeroIdIsRemappedAwayFromEmptySlot() {
+        assertEquals(1L, MessageTokenizer.nonZero(0L));
+        assertEquals(-7L, MessageTokenizer.nonZero(-7L));
+        assertEquals(Long.MIN_VALUE, MessageTokenizer.nonZero(Long.MIN_VALUE));
+    }
+
+    @Test
+    public void emittedIdsAreNeverZero() {
+        Recorder recorder = tokenize("a b c d e f g h i j 0 1 2 3 4 5 6 7 8 9 ok no yes");
+        for (long id : recorder.wordIds) {
+            assertNotEquals(0L, id);
+        }
+        for (long id : recorder.phraseIds) {
+            assertNotEquals(0L, id);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.saaya.automator.data;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * VocabularyIndexTest - Probing collisions, admission and top-20 ordering
+ */
+public class VocabularyIndexTest {
+
+    private static void add(VocabularyIndex index, long id, String term) {
+        index.add(id, term, 0, term.length());
+    }
+
+    private static void add(VocabularyIndex index, long id, String term, int times) {
+        for (int i = 0; i < times; i++) {
+            add(index, id, term);
+        }
+    }
+
+    private static int countOf(VocabularyIndex index, String term) {
+        for (SaayaMemoryDB.TermCount entry : index.top(Integer.MAX_VALUE)) {
+            if (entry.term.equals(term)) {
+                return entry.count;
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    public void keysSharingAProbeSlotStayApart() {
+        VocabularyIndex index = new VocabularyIndex(1000);
+        // 1, 257 and 513 all spread to slot 1 of the initial 256-slot table
+        add(index, 1L, "one", 3);
+        add(index, 257L, "two", 2);
+        add(index, 513L, "three", 1);
+
+        assertEquals(3, index.size());
+        assertEquals(3, countOf(index, "one"));
+        assertEquals(2, countOf(index, "two"));
+        assertEquals(1, countOf(index, "three"));
+    }
+
+    @Test
+    public void sameIdFromDifferentTextSharesOneEntry() {
+        // A 64-bit FNV collision: the first text seen is what gets displayed
+        VocabularyIndex index = new VocabularyIndex(1000);
+        add(index, 42L, "first");
+        add(index, 42L, "second");
+
+        assertEquals(1, index.size());
+        List<SaayaMemoryDB.TermCount> top = index.top(5);
+        assertEquals(1, top.size());
+        assertEquals("first", top.get(0).term);
+        assertEquals(2, top.get(0).count);
+    }
+
+    @Test
+    public void growingKeepsCountsAndTerms() {
+        VocabularyIndex index = new VocabularyIndex(10000);
+        for (int i = 1; i <= 1000; i++) {
+            add(index, i * 256L, "w" + i, 1 + i % 3);
+        }
+        assertEquals(1000, index.size());
+        // Counts only reach 3, so the top 20 are the first 20 keys with count 3
+        List<SaayaMemoryDB.TermCount> top = index.top(20);
+        assertEquals(20, top.size());
+        for (int i = 0; i < top.size(); i++) {
+            assertEquals(3, top.get(i).count);
+            assertEquals("w" + (3 * i + 2), top.get(i).term);
+        }
+    }
+
+    @Test
+    public void newTermsBeyondMaxTermsAreRejected() {
+        VocabularyIndex index = new VocabularyIndex(2);
+        add(index, 1L, "a");
+        add(index, 2L, "b");
+        add(index, 3L, "c");
+        add(index, 1L, "a");
+
+        assertEquals(2, index.size());
+        assertEquals(1, index.rejectedCount());
+        assertEquals(2, countOf(index, "a"));
+        assertEquals(-1, countOf(index, "c"));
+    }
+
+    @Test
+    public void tiesKeepFirstSeenOrderAndTopHoldsTwenty() {
+        VocabularyIndex index = new VocabularyIndex(1000);
+        for (int i = 1; i <= 25; i++) {
+            add(index, i, "t" + i);
+        }
+
+        List<SaayaMemoryDB.TermCount> top = index.top(100);
+        assertEquals(20, top.size());
+        for (int i = 0; i < 20; i++) {
+            assertEquals("t" + (i + 1), top.get(i).term);
+            assertEquals(1, top.get(i).count);
+        }
+    }
+
+    @Test
+    public void outsiderEntersOnlyByBeatingTheMinimum() {
+        VocabularyIndex index = new VocabularyIndex(1000);
+        for (int i = 1; i <= 20; i++) {
+            add(index, i, "t" + i, 2);
+        }
+
+        // Equal to the minimum is not enough
+        add(index, 21L, "t21", 2);
+        assertEquals(-1, countOf(index, "t21"));
+
+        // One more overtakes it and replaces the last of the tied entries
+        add(index, 21L, "t21");
+        List<SaayaMemoryDB.TermCount> top = index.top(100);
+        assertEquals(20, top.size());
+        assertEquals("t21", top.get(0).term);
+        assertEquals(3, top.get(0).count);
+        assertEquals("t1", top.get(1).term);
+        assertEquals("t19", top.get(19).term);
+        assertEquals(-1, countOf(index, "t20"));
+    }
+
+    @Test
+    public void tiedRiserStaysBehindEarlierEqualCounts() {
+        VocabularyIndex index = new VocabularyIndex(1000);
+        add(index, 1L, "a", 2);
+        add(index, 2L, "b", 1);
+        add(index, 3L, "c", 2);
+        add(index, 2L, "b");
+
+        List<SaayaMemoryDB.TermCount> top = index.top(3);
+        assertEquals("a", top.get(0).term);
+        assertEquals("c", top.get(1).term);
+        assertEquals("b", top.get(2).term);
+        assertEquals(2, top.get(2).count);
+    }
+
+    @Test
+    public void roundTripKeepsEntriesAndLeaders() throws IOException {
+        VocabularyIndex index = new VocabularyIndex(1000);
+        for (int i = 1; i <= 300; i++) {
+            add(index, i, "w" + i, 1 + i % 5);
+        }
+        add(index, 7L, "w7", 10);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        index.writeTo(new DataOutputStream(bytes));
+        VocabularyIndex copy = new VocabularyIndex(1000);
+        copy.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertEquals(index.size(), copy.size());
+        List<SaayaMemoryDB.TermCount> top = copy.top(20);
+        assertEquals(20, top.size());
+        assertEquals("w7", top.get(0).term);
+        assertEquals(13, top.get(0).count);
+        for (int i = 1; i < top.size(); i++) {
+            assertEquals(5, top.get(i).count);
+        }
+    }
+}
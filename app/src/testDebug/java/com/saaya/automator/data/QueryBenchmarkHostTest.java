@@ -0,0 +1,84 @@
+package com.saaya.automator.data;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * QueryBenchmarkHostTest - QueryBenchmark on the JVM, compared to a checked-in baseline
+ * Runs the dashboard queries at small scales under Robolectric and fails on
+ * regressions against benchmark/host-baseline.json. CI machines are not the
+ * one the baseline was taken on and JVM pauses dwarf sub-millisecond queries,
+ * so latencies only fail past LATENCY_RATIO and LATENCY_NOISE_MS: this
+ * catches a query falling off its index, not a few percent. Database size is
+ * deterministic and keeps the device ratio. The report is written to
+ * build/benchmark/host-results.json; copy it over the baseline to promote it.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class QueryBenchmarkHostTest {
+
+    private static final int[] SCALES = {10_000, 50_000};
+    private static final double LATENCY_RATIO = 3.0;
+    private static final double LATENCY_NOISE_MS = 25.0;
+    private static final String BASELINE = "/benchmark/host-baseline.json";
+    private static final File RESULTS = new File("build/benchmark/host-results.json");
+
+    @Test
+    public void queriesStayWithinBaseline() throws Exception {
+        InputStream baseline = getClass().getResourceAsStream(BASELINE);
+        assertNotNull("missing " + BASELINE, baseline);
+
+        QueryBenchmark benchmark = new QueryBenchmark(RuntimeEnvironment.getApplication(),
+                LATENCY_RATIO, LATENCY_NOISE_MS);
+        JSONObject report = benchmark.run(SCALES, new JSONObject(read(baseline)));
+        write(RESULTS, report.toString(2));
+
+        assertTrue("results not compared", report.getBoolean("compared"));
+        JSONArray regressions = report.getJSONArray("regressions");
+        assertEquals("regressions: " + regressions, 0, regressions.length());
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                bytes.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static void write(File file, String content) throws IOException {
+        File directory = file.getParentFile();
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        } finally {
+            out.close();
+        }
+    }
+}